@@ -0,0 +1,114 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * The resource and payloads shared by the benchmarks
+ */
+@Path("/users")
+public class BenchmarkResource {
+
+	public static class Item {
+		private String id, name;
+		private int amount;
+		private boolean active;
+		public String getId() {
+			return id;
+		}
+		public void setId(String id) {
+			this.id = id;
+		}
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+		public int getAmount() {
+			return amount;
+		}
+		public void setAmount(int amount) {
+			this.amount = amount;
+		}
+		public boolean isActive() {
+			return active;
+		}
+		public void setActive(boolean active) {
+			this.active = active;
+		}
+	}
+	
+	public static class Payload {
+		private List<Item> items;
+		public List<Item> getItems() {
+			return items;
+		}
+		public void setItems(List<Item> items) {
+			this.items = items;
+		}
+	}
+	
+	public static Payload newPayload(int size) {
+		List<Item> items = new ArrayList<Item>();
+		for (int i = 0; i < size; i++) {
+			Item item = new Item();
+			item.setId("item-" + i);
+			item.setName("The name of item " + i);
+			item.setAmount(i);
+			item.setActive(i % 2 == 0);
+			items.add(item);
+		}
+		Payload payload = new Payload();
+		payload.setItems(items);
+		return payload;
+	}
+	
+	private static Payload small = newPayload(1);
+	
+	@GET
+	@Path("/{id}")
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public Payload get(@PathParam("id") String id, @QueryParam("amount") int amount) {
+		return small;
+	}
+	
+	@GET
+	@Path("/{id}/orders/{orderId:[0-9]+}")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String getOrder(@PathParam("id") String id, @PathParam("orderId") long orderId) {
+		return id;
+	}
+	
+	@POST
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public Payload create(Payload payload) {
+		return payload;
+	}
+}
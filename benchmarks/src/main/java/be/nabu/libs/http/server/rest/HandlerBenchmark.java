@@ -0,0 +1,95 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.http.api.HTTPRequest;
+import be.nabu.libs.http.core.DefaultHTTPRequest;
+import be.nabu.libs.types.java.BeanInstance;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.PlainMimeContentPart;
+import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
+
+/**
+ * The full handle() call for synthetic requests: routing, binding, invoking and marshalling
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlerBenchmark {
+
+	@Param({ "application/json", "application/xml" })
+	private String mediaType;
+	
+	private RESTHandler handler;
+	private byte [] content;
+	
+	@Setup
+	public void setup() throws Exception {
+		handler = new RESTHandler("/api", BenchmarkResource.class, null);
+		handler.setLifecycle(RESTLifecycle.SINGLETON);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		handler.getCodec(mediaType).newMarshallable(RESTBindings.resolve(BenchmarkResource.Payload.class), RESTBindings.UTF8).marshal(output, new BeanInstance<BenchmarkResource.Payload>(BenchmarkResource.newPayload(10)));
+		content = output.toByteArray();
+	}
+	
+	@Benchmark
+	public Object get() {
+		return handler.handle(new DefaultHTTPRequest("GET", "/api/users/12345?amount=5", new PlainMimeEmptyPart(null,
+			new MimeHeader("Host", "localhost"),
+			new MimeHeader("Accept", mediaType)
+		)));
+	}
+	
+	@Benchmark
+	public Object post() {
+		HTTPRequest request = new DefaultHTTPRequest("POST", "/api/users", new PlainMimeContentPart(null, IOUtils.wrap(content, true),
+			new MimeHeader("Host", "localhost"),
+			new MimeHeader("Accept", mediaType),
+			new MimeHeader("Content-Type", mediaType),
+			new MimeHeader("Content-Length", Integer.toString(content.length))
+		));
+		return handler.handle(request);
+	}
+	
+	@Benchmark
+	public Object notFound() {
+		return handler.handle(new DefaultHTTPRequest("GET", "/api/unknown/12345", new PlainMimeEmptyPart(null,
+			new MimeHeader("Host", "localhost")
+		)));
+	}
+}
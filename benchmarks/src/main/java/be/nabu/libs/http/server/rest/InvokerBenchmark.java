@@ -0,0 +1,102 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the reflective call path (Method.invoke/Field.set) with the bound method handles in RESTInvoker and with a direct invoker as generated by the processor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+
+	public static class Resource {
+		private Object context;
+		public String get(String id, Integer amount, String filter) {
+			return id;
+		}
+	}
+	
+	private Resource resource = new Resource();
+	private Method method;
+	private Field field;
+	private RESTInvoker invoker, generated;
+	private RESTInvoker.Setter setter;
+	private Object context = new Object();
+	
+	@Setup
+	public void setup() throws Exception {
+		method = Resource.class.getMethod("get", String.class, Integer.class, String.class);
+		field = Resource.class.getDeclaredField("context");
+		field.setAccessible(true);
+		invoker = new RESTInvoker(method);
+		// what the processor generates
+		generated = new RESTInvoker(new RESTRoute.Invoker() {
+			@Override
+			public Object invoke(Object instance, Object[] arguments) throws Throwable {
+				return ((Resource) instance).get((String) arguments[0], (Integer) arguments[1], (String) arguments[2]);
+			}
+		});
+		setter = new RESTInvoker.Setter(field);
+	}
+	
+	@Benchmark
+	public Object reflectiveInvoke() throws Exception {
+		return method.invoke(resource, new Object[] { "id", 5, null });
+	}
+	
+	@Benchmark
+	public Object handleInvoke() throws Exception {
+		return invoker.invoke(resource, new Object[] { "id", 5, null });
+	}
+	
+	@Benchmark
+	public Object generatedInvoke() throws Exception {
+		return generated.invoke(resource, new Object[] { "id", 5, null });
+	}
+	
+	@Benchmark
+	public Object reflectiveSet() throws Exception {
+		field.set(resource, context);
+		return resource;
+	}
+	
+	@Benchmark
+	public Object handleSet() throws Exception {
+		setter.set(resource, context);
+		return resource;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.binding.api.Window;
+import be.nabu.libs.types.java.BeanInstance;
+
+/**
+ * Marshals and unmarshals payloads of different sizes with the registered codecs
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarshalBenchmark {
+
+	@Param({ "application/json", "application/xml", "application/cbor" })
+	private String mediaType;
+	
+	// the amount of items in the payload
+	@Param({ "1", "100", "10000" })
+	private int size;
+	
+	private RESTCodec codec;
+	private ComplexType type;
+	private BeanInstance<BenchmarkResource.Payload> payload;
+	private byte [] content;
+	
+	@Setup
+	public void setup() throws Exception {
+		codec = new RESTHandler("/", BenchmarkResource.class, null).getCodec(mediaType);
+		type = RESTBindings.resolve(BenchmarkResource.Payload.class);
+		payload = new BeanInstance<BenchmarkResource.Payload>(BenchmarkResource.newPayload(size));
+		content = marshal();
+	}
+	
+	@Benchmark
+	public byte [] marshal() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		codec.newMarshallable(type, RESTBindings.UTF8).marshal(output, payload);
+		return output.toByteArray();
+	}
+	
+	@Benchmark
+	public Object unmarshal() throws Exception {
+		return codec.newUnmarshallable(type, RESTBindings.UTF8).unmarshal(new ByteArrayInputStream(content), new Window[0]);
+	}
+}
@@ -0,0 +1,66 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extracts the path parameters of a method, both through the router and the pattern of the method itself
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathParameterBenchmark {
+
+	private static final String PATH = "/user-12345/orders/987654";
+	
+	private RESTRouter router;
+	private RESTMethod method;
+	
+	@Setup
+	public void setup() {
+		RESTHandler handler = new RESTHandler("/", BenchmarkResource.class, null);
+		router = handler.getRouter();
+		method = router.route(RESTVerb.GET, PATH).getMethod();
+	}
+	
+	@Benchmark
+	public Object router() {
+		return router.route(RESTVerb.GET, PATH).getPathValues();
+	}
+	
+	@Benchmark
+	public Object method() {
+		return method.getPathValues(PATH);
+	}
+}
@@ -0,0 +1,112 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.http.core.DefaultHTTPRequest;
+import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
+
+/**
+ * Handles requests for a handler with the given amount of routes. The router on its own is measured as well and compared with matching the pattern of every route in turn (how methods used to be resolved).
+ * All the routes lead to the same cheap method so the difference between the route counts is the cost of routing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	private int routes;
+	
+	private RESTHandler handler;
+	private RESTRouter router;
+	private List<Pattern> patterns;
+	private String [] paths;
+	private int index;
+	
+	@Setup
+	public void setup() {
+		handler = new RESTHandler("/api", BenchmarkResource.class, null);
+		handler.setLifecycle(RESTLifecycle.SINGLETON);
+		// the routes are added to the router of the handler, they all have the path parameters of the method (in the same order)
+		router = handler.getRouter();
+		RESTMethod method = router.route(RESTVerb.GET, "/1/orders/2").getMethod();
+		patterns = new ArrayList<Pattern>();
+		// a mix of the usual shapes: static segments and parameters in different places
+		String [] templates = new String[] { "/resource%d/{id}/orders/{orderId:[0-9]+}", "/resource%d/items/{id}/{orderId:[0-9]+}", "/resource%d/{id}/{orderId:[0-9]+}" };
+		for (int i = 0; i < routes; i++) {
+			String template = String.format(templates[i % templates.length], i / templates.length);
+			router.add(RESTVerb.GET, template, method);
+			patterns.add(new RESTRouter.PathTemplate(template).getPattern());
+		}
+		paths = new String[] { "/resource0/abc/orders/12", "/resource" + (routes / 6) + "/items/abc/12", "/resource" + (routes / 3 - 1) + "/abc/12", "/unknown/path" };
+	}
+	
+	private String next() {
+		return paths[index++ % paths.length];
+	}
+	
+	@Benchmark
+	public Object handle() {
+		return handler.handle(new DefaultHTTPRequest("GET", "/api/users" + next(), new PlainMimeEmptyPart(null,
+			new MimeHeader("Host", "localhost")
+		)));
+	}
+	
+	@Benchmark
+	public Object route() {
+		return router.route(RESTVerb.GET, next());
+	}
+	
+	@Benchmark
+	public Object linearScan() {
+		String path = next();
+		for (Pattern pattern : patterns) {
+			if (pattern.matcher(path).matches()) {
+				return pattern;
+			}
+		}
+		return null;
+	}
+	
+	@Benchmark
+	public Object allowed() {
+		return router.getAllowed(next());
+	}
+}
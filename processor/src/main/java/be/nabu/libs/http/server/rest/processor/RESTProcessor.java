@@ -0,0 +1,337 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Generates a route table (see RESTRouteTable) for every class with JAX-RS methods and registers it as a service.
+ * The route table describes the methods the way the handler would otherwise find out through reflection and calls them directly.
+ * Classes that can not be called directly from generated code (e.g. private methods) are skipped, the handler falls back to reflection for them.
+ */
+@SupportedAnnotationTypes({ "javax.ws.rs.GET", "javax.ws.rs.POST", "javax.ws.rs.PUT", "javax.ws.rs.DELETE", "javax.ws.rs.HEAD", "javax.ws.rs.OPTIONS" })
+public class RESTProcessor extends AbstractProcessor {
+
+	public static final String SUFFIX = "$RESTRoutes";
+	
+	private static final String SERVICE = "META-INF/services/be.nabu.libs.http.server.rest.RESTRouteTable";
+	private static final String PACKAGE = "be.nabu.libs.http.server.rest";
+	private static final List<String> VERBS = Arrays.asList("GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS");
+	
+	// the generated route tables over all the rounds
+	private Set<String> generated = new LinkedHashSet<String>();
+	
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+	
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+		Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+		for (TypeElement annotation : annotations) {
+			for (Element element : roundEnvironment.getElementsAnnotatedWith(annotation)) {
+				if (element instanceof ExecutableElement && element.getEnclosingElement() instanceof TypeElement) {
+					types.add((TypeElement) element.getEnclosingElement());
+				}
+			}
+		}
+		for (TypeElement type : types) {
+			try {
+				generate(type);
+			}
+			catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not generate the routes: " + e.getMessage(), type);
+			}
+		}
+		if (roundEnvironment.processingOver() && !generated.isEmpty()) {
+			try {
+				FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE);
+				Writer writer = resource.openWriter();
+				try {
+					for (String name : generated) {
+						writer.write(name + "\n");
+					}
+				}
+				finally {
+					writer.close();
+				}
+			}
+			catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not register the routes: " + e.getMessage());
+			}
+		}
+		// other processors may be interested in the same annotations
+		return false;
+	}
+	
+	private void generate(TypeElement type) throws IOException {
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		if (generated.contains(binaryName + SUFFIX) || !isAccessible(type)) {
+			return;
+		}
+		List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+		for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+			if (getVerbs(method).isEmpty()) {
+				continue;
+			}
+			else if (method.getModifiers().contains(Modifier.PRIVATE)) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "No routes are generated for " + type + " because " + method.getSimpleName() + " is private", type);
+				return;
+			}
+			methods.add(method);
+		}
+		PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+		String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+		String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + SUFFIX;
+		String className = type.getQualifiedName().toString();
+		
+		StringBuilder source = new StringBuilder();
+		if (!packageName.isEmpty()) {
+			source.append("package ").append(packageName).append(";\n\n");
+		}
+		source.append("/**\n * Generated by ").append(getClass().getName()).append(" for ").append(className).append(", do not edit\n */\n");
+		source.append("public final class ").append(simpleName).append(" implements ").append(PACKAGE).append(".RESTRouteTable {\n\n");
+		source.append("\t@Override\n\tpublic Class<?> getRestClass() {\n\t\treturn ").append(className).append(".class;\n\t}\n\n");
+		source.append("\t@Override\n\t@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+		source.append("\tpublic java.util.List<").append(PACKAGE).append(".RESTRoute> getRoutes() {\n");
+		source.append("\t\tjava.util.List<").append(PACKAGE).append(".RESTRoute> routes = new java.util.ArrayList<").append(PACKAGE).append(".RESTRoute>();\n");
+		for (ExecutableElement method : methods) {
+			generate(source, type, method);
+		}
+		source.append("\t\treturn routes;\n\t}\n}\n");
+		
+		Writer writer = processingEnv.getFiler().createSourceFile(packageName.isEmpty() ? simpleName : packageName + "." + simpleName, type).openWriter();
+		try {
+			writer.write(source.toString());
+		}
+		finally {
+			writer.close();
+		}
+		generated.add(binaryName + SUFFIX);
+	}
+	
+	private void generate(StringBuilder source, TypeElement type, ExecutableElement method) {
+		List<? extends VariableElement> parameters = method.getParameters();
+		source.append("\t\troutes.add(new ").append(PACKAGE).append(".RESTRoute(\n");
+		source.append("\t\t\t").append(literal(method.getSimpleName().toString())).append(",\n");
+		// the parameter types to look up the method
+		source.append("\t\t\tnew Class<?>[] {");
+		for (int i = 0; i < parameters.size(); i++) {
+			source.append(i == 0 ? " " : ", ").append(getErasure(parameters.get(i).asType())).append(".class");
+		}
+		source.append(parameters.isEmpty() ? "},\n" : " },\n");
+		// the verbs
+		source.append("\t\t\t");
+		List<String> verbs = getVerbs(method);
+		for (int i = 0; i < verbs.size(); i++) {
+			source.append(i == 0 ? "" : " | ").append(PACKAGE).append(".RESTVerb.").append(verbs.get(i)).append(".getMask()");
+		}
+		source.append(",\n");
+		List<String> path = getValues(method, "javax.ws.rs.Path");
+		source.append("\t\t\t").append(literal(path == null ? "/" : path.get(0))).append(",\n");
+		// method level declarations take precedence over class level declarations
+		List<String> produces = getValues(method, "javax.ws.rs.Produces");
+		source.append("\t\t\t").append(literal(produces == null ? getValues(type, "javax.ws.rs.Produces") : produces)).append(",\n");
+		List<String> consumes = getValues(method, "javax.ws.rs.Consumes");
+		source.append("\t\t\t").append(literal(consumes == null ? getValues(type, "javax.ws.rs.Consumes") : consumes)).append(",\n");
+		// where the parameters come from
+		source.append("\t\t\tnew ").append(PACKAGE).append(".RESTRoute.Parameter[] {");
+		for (int i = 0; i < parameters.size(); i++) {
+			source.append(i == 0 ? "\n" : ",\n").append("\t\t\t\t").append(getParameter(parameters.get(i)));
+		}
+		source.append(parameters.isEmpty() ? "},\n" : "\n\t\t\t},\n");
+		// the invoker
+		source.append("\t\t\tnew ").append(PACKAGE).append(".RESTRoute.Invoker() {\n");
+		source.append("\t\t\t\t@Override\n\t\t\t\tpublic Object invoke(Object instance, Object [] arguments) throws Throwable {\n\t\t\t\t\t");
+		boolean returns = method.getReturnType().getKind() != TypeKind.VOID;
+		if (returns) {
+			source.append("return ");
+		}
+		if (method.getModifiers().contains(Modifier.STATIC)) {
+			source.append(type.getQualifiedName());
+		}
+		else {
+			source.append("((").append(type.getQualifiedName()).append(") instance)");
+		}
+		source.append(".").append(method.getSimpleName()).append("(");
+		for (int i = 0; i < parameters.size(); i++) {
+			TypeMirror parameterType = parameters.get(i).asType();
+			// primitives are passed as their wrapper
+			String cast = parameterType.getKind().isPrimitive() ? processingEnv.getTypeUtils().boxedClass((javax.lang.model.type.PrimitiveType) parameterType).getQualifiedName().toString() : getErasure(parameterType);
+			source.append(i == 0 ? "" : ", ").append("(").append(cast).append(") arguments[").append(i).append("]");
+		}
+		source.append(");\n");
+		if (!returns) {
+			source.append("\t\t\t\t\treturn null;\n");
+		}
+		source.append("\t\t\t\t}\n\t\t\t}\n\t\t));\n");
+	}
+	
+	private String getParameter(VariableElement parameter) {
+		String source = "TYPE", name = null, defaultValue = null;
+		for (AnnotationMirror annotation : parameter.getAnnotationMirrors()) {
+			String annotationName = ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+			if (annotationName.equals("javax.ws.rs.DefaultValue")) {
+				defaultValue = getValues(annotation).get(0);
+			}
+			else if (!source.equals("TYPE")) {
+				continue;
+			}
+			else if (annotationName.equals("javax.ws.rs.PathParam")) {
+				source = "PATH";
+				name = getValues(annotation).get(0);
+			}
+			else if (annotationName.equals("javax.ws.rs.QueryParam")) {
+				source = "QUERY";
+				name = getValues(annotation).get(0);
+			}
+			else if (annotationName.equals("javax.ws.rs.HeaderParam")) {
+				source = "HEADER";
+				name = getValues(annotation).get(0);
+			}
+			else if (annotationName.equals("javax.ws.rs.FormParam")) {
+				source = "FORM";
+				name = getValues(annotation).get(0);
+			}
+			else if (annotationName.equals("javax.ws.rs.container.Suspended")) {
+				source = "SUSPENDED";
+			}
+		}
+		return "new " + PACKAGE + ".RESTRoute.Parameter(" + PACKAGE + ".RESTRoute.Source." + source + ", " + literal(name) + ", " + literal(defaultValue) + ")";
+	}
+	
+	private List<String> getVerbs(ExecutableElement method) {
+		List<String> verbs = new ArrayList<String>();
+		for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+			TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+			String annotationName = annotationType.getQualifiedName().toString();
+			if (annotationName.startsWith("javax.ws.rs.") && VERBS.contains(annotationType.getSimpleName().toString())) {
+				verbs.add(annotationType.getSimpleName().toString());
+			}
+		}
+		return verbs;
+	}
+	
+	// the generated class lives in the same package so anything that is not private is reachable
+	private static boolean isAccessible(Element type) {
+		while (type instanceof TypeElement) {
+			if (type.getModifiers().contains(Modifier.PRIVATE)) {
+				return false;
+			}
+			type = type.getEnclosingElement();
+		}
+		return true;
+	}
+	
+	private String getErasure(TypeMirror type) {
+		return processingEnv.getTypeUtils().erasure(type).toString();
+	}
+	
+	/**
+	 * The values of the "value" attribute of the annotation with the given name on the element, null if the annotation is not present
+	 */
+	private static List<String> getValues(Element element, String annotationName) {
+		for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+			if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName)) {
+				return getValues(annotation);
+			}
+		}
+		return null;
+	}
+	
+	private static List<String> getValues(AnnotationMirror annotation) {
+		List<String> values = new ArrayList<String>();
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+			if (entry.getKey().getSimpleName().contentEquals("value")) {
+				Object value = entry.getValue().getValue();
+				if (value instanceof List) {
+					for (Object child : (List<?>) value) {
+						values.add(((AnnotationValue) child).getValue().toString());
+					}
+				}
+				else {
+					values.add(value.toString());
+				}
+			}
+		}
+		return values;
+	}
+	
+	private static String literal(List<String> values) {
+		if (values == null) {
+			return "null";
+		}
+		StringBuilder builder = new StringBuilder("new String[] {");
+		for (int i = 0; i < values.size(); i++) {
+			builder.append(i == 0 ? " " : ", ").append(literal(values.get(i)));
+		}
+		return builder.append(values.isEmpty() ? "}" : " }").toString();
+	}
+	
+	private static String literal(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder builder = new StringBuilder("\"");
+		for (char character : value.toCharArray()) {
+			switch (character) {
+				case '"': builder.append("\\\""); break;
+				case '\\': builder.append("\\\\"); break;
+				case '\n': builder.append("\\n"); break;
+				case '\r': builder.append("\\r"); break;
+				case '\t': builder.append("\\t"); break;
+				default:
+					if (character < 0x20 || character > 0x7e) {
+						builder.append(String.format("\\u%04x", (int) character));
+					}
+					else {
+						builder.append(character);
+					}
+			}
+		}
+		return builder.append("\"").toString();
+	}
+}
@@ -0,0 +1,109 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A small concurrent cache, intended for lookups that have a limited number of distinct keys in practice.
+ * Lookups don't take a lock, they are on the hot path of every request. The eviction is approximate: once the cache grows beyond its size it is shrunk to 90% of it, entries that were not used since the previous eviction go first (a second chance or "clock" policy).
+ */
+public class BoundedCache<K, V> {
+
+	private Map<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+	private int maxSize;
+	// only one thread evicts at a time, the others carry on
+	private ReentrantLock evicting = new ReentrantLock();
+	
+	public BoundedCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+	
+	public V get(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		// only written when it changes to avoid contention on the cache line
+		if (!entry.used) {
+			entry.used = true;
+		}
+		return entry.value;
+	}
+	
+	public void put(K key, V value) {
+		entries.put(key, new Entry<V>(value));
+		if (entries.size() > maxSize && evicting.tryLock()) {
+			try {
+				evict();
+			}
+			finally {
+				evicting.unlock();
+			}
+		}
+	}
+	
+	private void evict() {
+		// evicting in batches means the used flags are only cleared once per batch
+		int target = maxSize - maxSize / 10;
+		// at most two passes: the first one clears the used flags, the second one is guaranteed to find entries to evict
+		for (int pass = 0; pass < 2 && entries.size() > target; pass++) {
+			Iterator<Entry<V>> iterator = entries.values().iterator();
+			while (iterator.hasNext() && entries.size() > target) {
+				Entry<V> entry = iterator.next();
+				if (entry.used) {
+					entry.used = false;
+				}
+				else {
+					iterator.remove();
+				}
+			}
+		}
+	}
+	
+	public V remove(K key) {
+		Entry<V> entry = entries.remove(key);
+		return entry == null ? null : entry.value;
+	}
+	
+	public void removeIf(Predicate<? super K> predicate) {
+		entries.keySet().removeIf(predicate);
+	}
+	
+	public void clear() {
+		entries.clear();
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	private static class Entry<V> {
+		private final V value;
+		private volatile boolean used;
+		
+		Entry(V value) {
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,646 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import be.nabu.libs.converter.ConverterFactory;
+import be.nabu.libs.converter.api.Converter;
+import be.nabu.libs.http.HTTPException;
+import be.nabu.libs.types.SimpleTypeWrapperFactory;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.DefinedSimpleType;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.api.Marshallable;
+import be.nabu.libs.types.api.SimpleType;
+import be.nabu.libs.types.api.SimpleTypeWrapper;
+import be.nabu.libs.types.api.Type;
+import be.nabu.libs.types.api.Value;
+import be.nabu.libs.types.binding.api.MarshallableBinding;
+import be.nabu.libs.types.binding.api.UnmarshallableBinding;
+import be.nabu.libs.types.binding.api.Window;
+import be.nabu.libs.types.java.BeanInstance;
+
+/**
+ * A binary binding (RFC 8949) for complex types: complex content is written as a map of its non-null children, lists as arrays.
+ * Numbers, booleans, bytes and dates (tag 1) have a native representation, other simple values are written as their marshalled string.
+ * When unmarshalling, the values are read according to the type of the element they belong to, unknown keys are skipped.
+ * The lengths in the document come from the client: strings are read in chunks against a maximum size and the nesting depth is limited.
+ */
+public class CBORBinding implements MarshallableBinding, UnmarshallableBinding {
+
+	public static final String APPLICATION_CBOR = "application/cbor";
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int UNSIGNED = 0, NEGATIVE = 1, BYTES = 2, TEXT = 3, ARRAY = 4, MAP = 5, TAG = 6, SIMPLE = 7;
+	private static final int INDEFINITE = 31, BREAK = 0xff, FALSE = 0xf4, TRUE = 0xf5, NULL = 0xf6, UNDEFINED = 0xf7;
+	// strings are read in chunks of at most this size so a declared length never determines the allocation
+	private static final int CHUNK_SIZE = 8192;
+	
+	public static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+	public static final int DEFAULT_MAX_DEPTH = 64;
+	
+	private static Converter converter = ConverterFactory.getInstance().getConverter();
+	private static SimpleTypeWrapper simpleTypeWrapper = SimpleTypeWrapperFactory.getInstance().getWrapper();
+	
+	private ComplexType type;
+	// the maximum amount of string and byte content in a document (or a streamed element)
+	private long maxSize = DEFAULT_MAX_SIZE;
+	private int maxDepth = DEFAULT_MAX_DEPTH;
+	
+	public CBORBinding(ComplexType type) {
+		this.type = type;
+	}
+	
+	@Override
+	public void marshal(OutputStream output, ComplexContent content, Value<?>...values) throws IOException {
+		DataOutputStream data = new DataOutputStream(output);
+		writeValue(data, content);
+		data.flush();
+	}
+	
+	@Override
+	public ComplexContent unmarshal(InputStream input, Window[] windows, Value<?>...values) throws IOException, ParseException {
+		Reader reader = new Reader(input, maxSize, maxDepth);
+		ComplexContent content = reader.readComplex(type);
+		if (content == null) {
+			throw new ParseException("The root of the cbor document can not be null", 0);
+		}
+		return content;
+	}
+	
+	/**
+	 * Writes an array of indefinite length, the elements are written as they are pulled
+	 */
+	public static void write(OutputStream output, Iterator<?> elements, RESTProjection projection) throws IOException {
+		DataOutputStream data = new DataOutputStream(output);
+		data.write(ARRAY << 5 | INDEFINITE);
+		while (elements.hasNext()) {
+			writeValue(data, RESTProjectedContent.project(elements.next(), projection));
+		}
+		data.write(BREAK);
+		data.flush();
+	}
+	
+	/**
+	 * Reads a cbor array one element at a time, the elements are read as the given type.
+	 * The limits of this binding apply to every element separately, the array itself can be arbitrarily large.
+	 */
+	public Iterator<Object> newIterator(Class<?> elementType, InputStream input) {
+		DefinedSimpleType<? extends Object> simpleType = simpleTypeWrapper.wrap(elementType);
+		return new ArrayIterator(simpleType == null ? RESTBindings.resolve(elementType) : simpleType, input, new Reader(input, maxSize, maxDepth));
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void writeValue(DataOutputStream output, Object value) throws IOException {
+		if (value == null) {
+			output.write(NULL);
+		}
+		else if (value instanceof ComplexContent) {
+			writeComplex(output, (ComplexContent) value);
+		}
+		else if (value instanceof Boolean) {
+			output.write((Boolean) value ? TRUE : FALSE);
+		}
+		else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			writeInteger(output, ((Number) value).longValue());
+		}
+		else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+			writeInteger(output, ((BigInteger) value).longValue());
+		}
+		else if (value instanceof Double) {
+			output.write(0xfb);
+			output.writeDouble((Double) value);
+		}
+		else if (value instanceof Float) {
+			output.write(0xfa);
+			output.writeFloat((Float) value);
+		}
+		else if (value instanceof byte[]) {
+			writeHead(output, BYTES, ((byte[]) value).length);
+			output.write((byte[]) value);
+		}
+		else if (value instanceof String) {
+			writeText(output, (String) value);
+		}
+		else if (value instanceof Date) {
+			long time = ((Date) value).getTime();
+			// tag 1: seconds since the epoch
+			writeHead(output, TAG, 1);
+			if (time % 1000 == 0) {
+				writeInteger(output, time / 1000);
+			}
+			else {
+				output.write(0xfb);
+				output.writeDouble(time / 1000d);
+			}
+		}
+		else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			writeHead(output, MAP, map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				writeText(output, entry.getKey().toString());
+				writeValue(output, entry.getValue());
+			}
+		}
+		else if (value instanceof Collection) {
+			Collection<?> collection = (Collection<?>) value;
+			writeHead(output, ARRAY, collection.size());
+			for (Object child : collection) {
+				writeValue(output, child);
+			}
+		}
+		else if (value.getClass().isArray()) {
+			int length = Array.getLength(value);
+			writeHead(output, ARRAY, length);
+			for (int i = 0; i < length; i++) {
+				writeValue(output, Array.get(value, i));
+			}
+		}
+		else {
+			DefinedSimpleType<? extends Object> simpleType = simpleTypeWrapper.wrap(value.getClass());
+			if (simpleType == null) {
+				writeComplex(output, new BeanInstance(value));
+			}
+			else {
+				writeText(output, simpleType instanceof Marshallable ? ((Marshallable) simpleType).marshal(value) : value.toString());
+			}
+		}
+	}
+	
+	private static void writeComplex(DataOutputStream output, ComplexContent content) throws IOException {
+		List<String> names = new ArrayList<String>();
+		List<Object> values = new ArrayList<Object>();
+		for (Element<?> child : TypeUtils.getAllChildren(content.getType())) {
+			Object value = content.get(child.getName());
+			if (value != null) {
+				names.add(child.getName());
+				values.add(value);
+			}
+		}
+		writeHead(output, MAP, names.size());
+		for (int i = 0; i < names.size(); i++) {
+			writeText(output, names.get(i));
+			writeValue(output, values.get(i));
+		}
+	}
+	
+	private static void writeInteger(DataOutputStream output, long value) throws IOException {
+		if (value >= 0) {
+			writeHead(output, UNSIGNED, value);
+		}
+		else {
+			writeHead(output, NEGATIVE, -1 - value);
+		}
+	}
+	
+	private static void writeText(DataOutputStream output, String value) throws IOException {
+		byte [] bytes = value.getBytes(UTF8);
+		writeHead(output, TEXT, bytes.length);
+		output.write(bytes);
+	}
+	
+	private static void writeHead(DataOutputStream output, int major, long length) throws IOException {
+		int prefix = major << 5;
+		if (length < 24) {
+			output.write(prefix | (int) length);
+		}
+		else if (length < 0x100) {
+			output.write(prefix | 24);
+			output.write((int) length);
+		}
+		else if (length < 0x10000) {
+			output.write(prefix | 25);
+			output.writeShort((int) length);
+		}
+		else if (length < 0x100000000L) {
+			output.write(prefix | 26);
+			output.writeInt((int) length);
+		}
+		else {
+			output.write(prefix | 27);
+			output.writeLong(length);
+		}
+	}
+	
+	private static class ArrayIterator implements Iterator<Object>, AutoCloseable {
+		private Reader reader;
+		private InputStream input;
+		private Type type;
+		// the amount of elements left, -1 for an indefinite array
+		private long remaining;
+		private boolean started;
+		
+		ArrayIterator(Type type, InputStream input, Reader reader) {
+			this.type = type;
+			this.input = input;
+			this.reader = reader;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			try {
+				if (!started) {
+					int initial = reader.read();
+					if (initial >> 5 != ARRAY) {
+						throw new HTTPException(400, "Expecting a cbor array");
+					}
+					remaining = reader.readLength(initial);
+					started = true;
+				}
+				if (remaining < 0 && reader.peek() == BREAK) {
+					reader.read();
+					remaining = 0;
+				}
+				return remaining != 0;
+			}
+			catch (IOException e) {
+				throw new HTTPException(400, e);
+			}
+			catch (ParseException e) {
+				throw new HTTPException(400, e);
+			}
+		}
+		
+		@Override
+		public Object next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (remaining > 0) {
+				remaining--;
+			}
+			// the limits apply per element, the collection itself can be arbitrarily large
+			reader.reset();
+			try {
+				return reader.readSingle(type);
+			}
+			catch (IOException e) {
+				throw new HTTPException(400, e);
+			}
+			catch (ParseException e) {
+				throw new HTTPException(400, e);
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			input.close();
+		}
+	}
+	
+	private static class Reader {
+		private DataInputStream input;
+		private long maxSize, size;
+		private int maxDepth, depth;
+		
+		Reader(InputStream input, long maxSize, int maxDepth) {
+			this.input = new DataInputStream(new BufferedInputStream(input));
+			this.maxSize = maxSize;
+			this.maxDepth = maxDepth;
+		}
+		
+		void reset() {
+			size = 0;
+			depth = 0;
+		}
+		
+		private void enter() {
+			if (++depth > maxDepth) {
+				throw new HTTPException(400, "The cbor document is nested deeper than " + maxDepth + " levels");
+			}
+		}
+		
+		private void leave() {
+			depth--;
+		}
+		
+		private int peek() throws IOException {
+			input.mark(1);
+			int read = input.read();
+			input.reset();
+			if (read < 0) {
+				throw new EOFException("Unexpected end of the cbor document");
+			}
+			return read;
+		}
+		
+		private int read() throws IOException {
+			int read = input.read();
+			if (read < 0) {
+				throw new EOFException("Unexpected end of the cbor document");
+			}
+			return read;
+		}
+		
+		// returns -1 for indefinite lengths (only for strings, arrays and maps)
+		private long readLength(int initial) throws IOException, ParseException {
+			int major = initial >> 5;
+			int additional = initial & 0x1f;
+			if (additional < 24) {
+				return additional;
+			}
+			switch (additional) {
+				case 24: return input.readUnsignedByte();
+				case 25: return input.readUnsignedShort();
+				case 26: return input.readInt() & 0xffffffffL;
+				case 27:
+					long length = input.readLong();
+					// an unsigned integer can exceed a signed long, a length can not
+					if (length < 0 && major != UNSIGNED && major != NEGATIVE && major != TAG) {
+						throw new ParseException("Invalid length: " + Long.toUnsignedString(length), 0);
+					}
+					return length;
+				case INDEFINITE:
+					if (major < BYTES || major > MAP) {
+						throw new ParseException("Indefinite length is not allowed for major type " + major, 0);
+					}
+					return -1;
+				default: throw new ParseException("Invalid additional information: " + additional, 0);
+			}
+		}
+		
+		private boolean isNull() throws IOException {
+			int next = peek();
+			if (next == NULL || next == UNDEFINED) {
+				read();
+				return true;
+			}
+			return false;
+		}
+		
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		ComplexContent readComplex(ComplexType type) throws IOException, ParseException {
+			if (isNull()) {
+				return null;
+			}
+			int initial = read();
+			if (initial >> 5 != MAP) {
+				throw new ParseException("Expecting a map for: " + type.getName(), 0);
+			}
+			ComplexContent content = type.newInstance();
+			long length = readLength(initial);
+			enter();
+			for (long i = 0; length < 0 || i < length; i++) {
+				if (length < 0 && peek() == BREAK) {
+					read();
+					break;
+				}
+				Object key = readGeneric();
+				Element<?> element = key == null ? null : type.get(key.toString());
+				if (element == null) {
+					readGeneric();
+				}
+				else {
+					content.set(element.getName(), readElement(element));
+				}
+			}
+			leave();
+			return content;
+		}
+		
+		private Object readElement(Element<?> element) throws IOException, ParseException {
+			Type type = element.getType();
+			if (!type.isList(element.getProperties())) {
+				return readSingle(type);
+			}
+			if (isNull()) {
+				return null;
+			}
+			int initial = read();
+			if (initial >> 5 != ARRAY) {
+				throw new ParseException("Expecting an array for: " + element.getName(), 0);
+			}
+			long length = readLength(initial);
+			List<Object> list = new ArrayList<Object>();
+			enter();
+			for (long i = 0; length < 0 || i < length; i++) {
+				if (length < 0 && peek() == BREAK) {
+					read();
+					break;
+				}
+				list.add(readSingle(type));
+			}
+			leave();
+			return list;
+		}
+		
+		@SuppressWarnings("rawtypes")
+		private Object readSingle(Type type) throws IOException, ParseException {
+			if (type instanceof ComplexType) {
+				ComplexContent content = readComplex((ComplexType) type);
+				return content instanceof BeanInstance ? ((BeanInstance) content).getUnwrapped() : content;
+			}
+			Object value = readGeneric();
+			Class<?> target = type instanceof SimpleType ? ((SimpleType) type).getInstanceClass() : null;
+			return value == null || target == null || target.isInstance(value) ? value : convert(value, target);
+		}
+		
+		private Object readGeneric() throws IOException, ParseException {
+			int initial = read();
+			int major = initial >> 5;
+			switch (major) {
+				case UNSIGNED:
+					long unsigned = readLength(initial);
+					// larger than a signed long
+					return unsigned < 0 ? new BigInteger(Long.toUnsignedString(unsigned)) : (Object) unsigned;
+				case NEGATIVE:
+					long negative = readLength(initial);
+					return negative < 0 ? new BigInteger(Long.toUnsignedString(negative)).negate().subtract(BigInteger.ONE) : (Object) (-1 - negative);
+				case BYTES:
+					return readBytes(initial, BYTES);
+				case TEXT:
+					return new String(readBytes(initial, TEXT), UTF8);
+				case ARRAY:
+					long length = readLength(initial);
+					List<Object> list = new ArrayList<Object>();
+					enter();
+					for (long i = 0; length < 0 || i < length; i++) {
+						if (length < 0 && peek() == BREAK) {
+							read();
+							break;
+						}
+						list.add(readGeneric());
+					}
+					leave();
+					return list;
+				case MAP:
+					length = readLength(initial);
+					Map<String, Object> map = new LinkedHashMap<String, Object>();
+					enter();
+					for (long i = 0; length < 0 || i < length; i++) {
+						if (length < 0 && peek() == BREAK) {
+							read();
+							break;
+						}
+						Object key = readGeneric();
+						map.put(key == null ? null : key.toString(), readGeneric());
+					}
+					leave();
+					return map;
+				case TAG:
+					long tag = readLength(initial);
+					enter();
+					Object tagged = readGeneric();
+					leave();
+					if (tag == 1 && tagged instanceof Number) {
+						return new Date(Math.round(((Number) tagged).doubleValue() * 1000));
+					}
+					else if ((tag == 2 || tag == 3) && tagged instanceof byte[]) {
+						BigInteger big = new BigInteger(1, (byte[]) tagged);
+						return tag == 2 ? big : big.negate().subtract(BigInteger.ONE);
+					}
+					// unknown tags are ignored
+					return tagged;
+				default:
+					switch (initial) {
+						case FALSE: return false;
+						case TRUE: return true;
+						case NULL:
+						case UNDEFINED:
+							return null;
+						case 0xf9: return toFloat(input.readUnsignedShort());
+						case 0xfa: return input.readFloat();
+						case 0xfb: return input.readDouble();
+						default: throw new ParseException("Unsupported simple value: " + initial, 0);
+					}
+			}
+		}
+		
+		private byte [] readBytes(int initial, int major) throws IOException, ParseException {
+			long length = readLength(initial);
+			if (length >= 0) {
+				size += length;
+				if (size > maxSize) {
+					throw new HTTPException(413, "The cbor document contains more than " + maxSize + " bytes of content");
+				}
+				// the content has to actually arrive before we allocate memory for it
+				ByteArrayOutputStream output = new ByteArrayOutputStream((int) Math.min(length, CHUNK_SIZE));
+				byte [] buffer = new byte[(int) Math.min(length, CHUNK_SIZE)];
+				while (length > 0) {
+					int read = (int) Math.min(length, buffer.length);
+					input.readFully(buffer, 0, read);
+					output.write(buffer, 0, read);
+					length -= read;
+				}
+				return output.toByteArray();
+			}
+			// indefinite length strings are a sequence of definite length chunks
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			while (peek() != BREAK) {
+				int chunk = read();
+				if (chunk >> 5 != major || (chunk & 0x1f) == INDEFINITE) {
+					throw new ParseException("Invalid chunk in indefinite length string", 0);
+				}
+				output.write(readBytes(chunk, major));
+			}
+			read();
+			return output.toByteArray();
+		}
+		
+		private static float toFloat(int half) {
+			int exponent = (half >> 10) & 0x1f;
+			int mantissa = half & 0x3ff;
+			float value;
+			if (exponent == 0) {
+				value = (float) (mantissa * Math.pow(2, -24));
+			}
+			else if (exponent == 31) {
+				value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+			}
+			else {
+				value = (float) ((mantissa + 1024) * Math.pow(2, exponent - 25));
+			}
+			return (half & 0x8000) == 0 ? value : -value;
+		}
+		
+		private static Object convert(Object value, Class<?> target) {
+			if (value instanceof Number) {
+				Number number = (Number) value;
+				if (Integer.class.equals(target) || int.class.equals(target)) {
+					return number.intValue();
+				}
+				else if (Long.class.equals(target) || long.class.equals(target)) {
+					return number.longValue();
+				}
+				else if (Double.class.equals(target) || double.class.equals(target)) {
+					return number.doubleValue();
+				}
+				else if (Float.class.equals(target) || float.class.equals(target)) {
+					return number.floatValue();
+				}
+				else if (Short.class.equals(target) || short.class.equals(target)) {
+					return number.shortValue();
+				}
+				else if (Byte.class.equals(target) || byte.class.equals(target)) {
+					return number.byteValue();
+				}
+				else if (BigInteger.class.equals(target)) {
+					return value instanceof BigInteger ? value : BigInteger.valueOf(number.longValue());
+				}
+				else if (BigDecimal.class.equals(target)) {
+					return new BigDecimal(number.toString());
+				}
+			}
+			Object converted = converter.convert(value, target);
+			// fall back to the string representation
+			if (converted == null && !(value instanceof String)) {
+				converted = converter.convert(value.toString(), target);
+			}
+			return converted;
+		}
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+}
@@ -0,0 +1,51 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Caches the marshalled response of a GET method, the cache key consists of the path values, the listed query and header parameters and the negotiated response type.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cached {
+	/**
+	 * How long (in ms) an entry stays valid
+	 */
+	public long ttl() default 60000;
+	/**
+	 * The maximum amount of entries, the least recently used entries are evicted first
+	 */
+	public int maxEntries() default 1024;
+	/**
+	 * The query parameters that are part of the key
+	 */
+	public String [] query() default {};
+	/**
+	 * The headers that are part of the key
+	 */
+	public String [] headers() default {};
+	/**
+	 * The max-age (in seconds) sent to the client, if 0 the client is instructed to revalidate with the etag
+	 */
+	public int maxAge() default 0;
+}
@@ -17,6 +17,8 @@
 
 package be.nabu.libs.http.server.rest;
 
+import java.util.Collection;
+
 import be.nabu.libs.authentication.api.RoleHandler;
 import be.nabu.libs.events.api.EventHandler;
 import be.nabu.libs.http.api.HTTPRequest;
@@ -30,8 +32,54 @@ public class HTTPServerRESTUtils {
 		return new RESTHandler(serverPath, restClass, roleHandler, context);
 	}
 	
+	public static EventHandler<HTTPRequest, HTTPResponse> restHandler(Class<?> restClass, String serverPath, RoleHandler roleHandler, RESTLifecycle lifecycle, Object...context) {
+		RESTHandler handler = new RESTHandler(serverPath, restClass, roleHandler, context);
+		handler.setLifecycle(lifecycle);
+		return handler;
+	}
+	
+	/**
+	 * A single handler for all the given classes, the routes are merged and conflicts are reported immediately
+	 */
+	public static RESTCompositeHandler restHandler(Collection<Class<?>> restClasses, String serverPath, RoleHandler roleHandler, Object...context) {
+		return new RESTCompositeHandler(serverPath, restClasses, roleHandler, context);
+	}
+	
+	public static RESTCompositeHandler restHandler(Collection<Class<?>> restClasses, String serverPath, RoleHandler roleHandler, RESTLifecycle lifecycle, Object...context) {
+		RESTCompositeHandler handler = new RESTCompositeHandler(serverPath, restClasses, roleHandler, context);
+		for (RESTHandler child : handler.getHandlers()) {
+			child.setLifecycle(lifecycle);
+		}
+		return handler;
+	}
+	
 	public static void handleRest(HTTPServer server, Class<?> restClass, String serverPath, RoleHandler roleHandler, Object...context) {
-		server.getDispatcher(null).subscribe(HTTPRequest.class, restHandler(restClass, serverPath, roleHandler, context))
+		handleRest(server, restClass, serverPath, roleHandler, RESTLifecycle.PER_REQUEST, context);
+	}
+	
+	public static void handleRest(HTTPServer server, Class<?> restClass, String serverPath, RoleHandler roleHandler, RESTLifecycle lifecycle, Object...context) {
+		server.getDispatcher(null).subscribe(HTTPRequest.class, restHandler(restClass, serverPath, roleHandler, lifecycle, context))
+			.filter(HTTPServerUtils.limitToPath(serverPath));
+	}
+	
+	public static RESTCompositeHandler handleRest(HTTPServer server, Collection<Class<?>> restClasses, String serverPath, RoleHandler roleHandler, Object...context) {
+		return handleRest(server, restClasses, serverPath, roleHandler, RESTLifecycle.PER_REQUEST, context);
+	}
+	
+	public static RESTCompositeHandler handleRest(HTTPServer server, Collection<Class<?>> restClasses, String serverPath, RoleHandler roleHandler, RESTLifecycle lifecycle, Object...context) {
+		RESTCompositeHandler handler = restHandler(restClasses, serverPath, roleHandler, lifecycle, context);
+		server.getDispatcher(null).subscribe(HTTPRequest.class, handler)
 			.filter(HTTPServerUtils.limitToPath(serverPath));
+		return handler;
+	}
+	
+	/**
+	 * Exposes a batch endpoint at the given path that executes its sub-requests against the given handler (usually a rest handler or a composite handler)
+	 */
+	public static RESTBatchHandler handleBatch(HTTPServer server, EventHandler<HTTPRequest, HTTPResponse> handler, String batchPath) {
+		RESTBatchHandler batchHandler = new RESTBatchHandler(batchPath, handler);
+		server.getDispatcher(null).subscribe(HTTPRequest.class, batchHandler)
+			.filter(HTTPServerUtils.limitToPath(batchPath));
+		return batchHandler;
 	}
 }
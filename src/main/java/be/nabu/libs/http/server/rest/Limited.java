@@ -0,0 +1,64 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limits the amount of concurrent calls to a method, requests that exceed the limit are rejected immediately or after waiting in a bounded queue.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Limited {
+	/**
+	 * The maximum amount of calls in flight, in adaptive mode this is the upper bound
+	 */
+	public int maxConcurrent() default 16;
+	/**
+	 * The maximum amount of requests that wait for a slot, 0 means excess requests are rejected immediately
+	 */
+	public int queueSize() default 0;
+	/**
+	 * How long (in ms) a request can wait in the queue
+	 */
+	public long queueTimeout() default 1000;
+	/**
+	 * Whether the limit adapts to the measured latency, it decreases when the latency rises above the tolerated multiple of the best latency and slowly increases otherwise
+	 */
+	public boolean adaptive() default false;
+	/**
+	 * The lower bound in adaptive mode
+	 */
+	public int minConcurrent() default 1;
+	/**
+	 * In adaptive mode, how many times slower than the best latency a call can be before the limit is decreased
+	 */
+	public double tolerance() default 2;
+	/**
+	 * The status code of a rejection, 503 or 429
+	 */
+	public int status() default 503;
+	/**
+	 * The value (in seconds) of the Retry-After header of a rejection
+	 */
+	public int retryAfter() default 1;
+}
@@ -0,0 +1,210 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+package be.nabu.libs.http.server.rest;
+
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.TimeoutHandler;
+
+import be.nabu.libs.http.api.HTTPRequest;
+import be.nabu.libs.http.core.DefaultHTTPResponse;
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
+
+/**
+ * The asynchronous response that is injected into @Suspended parameters, it completes a future.
+ * Completion callbacks are called when the future completes, connection callbacks are not supported (the server does not report disconnects) and are not registered.
+ */
+public class RESTAsyncResponse implements AsyncResponse {
+
+	private CompletableFuture<Object> future = new CompletableFuture<Object>();
+	// used to build the response when the request is cancelled
+	private HTTPRequest request;
+	private volatile boolean cancelled;
+	// in ms, 0 means the default timeout of the handler
+	private volatile long timeout;
+	private volatile TimeoutHandler timeoutHandler;
+	
+	public RESTAsyncResponse() {
+		this(null);
+	}
+	
+	RESTAsyncResponse(HTTPRequest request) {
+		this.request = request;
+	}
+
+	@Override
+	public boolean resume(Object response) {
+		return future.complete(response);
+	}
+
+	@Override
+	public boolean resume(Throwable response) {
+		return future.completeExceptionally(response);
+	}
+
+	@Override
+	public boolean cancel() {
+		return cancel((String) null);
+	}
+
+	@Override
+	public boolean cancel(int retryAfter) {
+		return cancel(Integer.toString(retryAfter));
+	}
+
+	@Override
+	public boolean cancel(Date retryAfter) {
+		return cancel(retryAfter == null ? null : DateTimeFormatter.RFC_1123_DATE_TIME.format(retryAfter.toInstant().atOffset(ZoneOffset.UTC)));
+	}
+	
+	// the response is a 503, optionally with a Retry-After header
+	private boolean cancel(String retryAfter) {
+		List<Header> headers = new ArrayList<Header>();
+		if (retryAfter != null) {
+			headers.add(new MimeHeader("Retry-After", retryAfter));
+		}
+		headers.add(new MimeHeader("Content-Length", "0"));
+		boolean cancelled = future.complete(new DefaultHTTPResponse(request, 503, "Service Unavailable", new PlainMimeEmptyPart(null, headers.toArray(new Header[headers.size()]))));
+		if (cancelled) {
+			this.cancelled = true;
+		}
+		return cancelled || this.cancelled;
+	}
+
+	@Override
+	public boolean isSuspended() {
+		return !future.isDone();
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	@Override
+	public boolean setTimeout(long time, TimeUnit unit) {
+		if (future.isDone()) {
+			return false;
+		}
+		this.timeout = unit.toMillis(time);
+		return true;
+	}
+
+	@Override
+	public void setTimeoutHandler(TimeoutHandler handler) {
+		this.timeoutHandler = handler;
+	}
+
+	@Override
+	public Collection<Class<?>> register(Class<?> callback) {
+		if (callback == null) {
+			throw new NullPointerException("No callback class given");
+		}
+		try {
+			return register(callback.newInstance());
+		}
+		catch (InstantiationException e) {
+			throw new IllegalArgumentException("Can not instantiate the callback: " + callback, e);
+		}
+		catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Can not instantiate the callback: " + callback, e);
+		}
+	}
+
+	@Override
+	public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+		Map<Class<?>, Collection<Class<?>>> registered = new LinkedHashMap<Class<?>, Collection<Class<?>>>();
+		registered.put(callback, register(callback));
+		for (Class<?> other : callbacks) {
+			registered.put(other, register(other));
+		}
+		return registered;
+	}
+
+	@Override
+	public Collection<Class<?>> register(final Object callback) {
+		if (callback == null) {
+			throw new NullPointerException("No callback given");
+		}
+		List<Class<?>> registered = new ArrayList<Class<?>>();
+		if (callback instanceof CompletionCallback) {
+			// called immediately if the future is already done
+			future.whenComplete(new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(Object result, Throwable throwable) {
+					while (throwable instanceof CompletionException && throwable.getCause() != null) {
+						throwable = throwable.getCause();
+					}
+					((CompletionCallback) callback).onComplete(throwable);
+				}
+			});
+			registered.add(CompletionCallback.class);
+		}
+		return registered;
+	}
+
+	@Override
+	public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+		Map<Class<?>, Collection<Class<?>>> registered = new LinkedHashMap<Class<?>, Collection<Class<?>>>();
+		registered.put(callback.getClass(), register(callback));
+		for (Object other : callbacks) {
+			registered.put(other.getClass(), register(other));
+		}
+		return registered;
+	}
+
+	CompletableFuture<Object> getFuture() {
+		return future;
+	}
+
+	long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Returns true if the timeout handler was called and it either resumed the response or extended the timeout
+	 */
+	boolean handleTimeout() {
+		TimeoutHandler timeoutHandler = this.timeoutHandler;
+		if (timeoutHandler == null) {
+			return false;
+		}
+		long timeout = this.timeout;
+		timeoutHandler.handleTimeout(this);
+		return future.isDone() || this.timeout != timeout;
+	}
+}
@@ -0,0 +1,629 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.MediaType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.events.api.EventHandler;
+import be.nabu.libs.http.HTTPException;
+import be.nabu.libs.http.api.HTTPRequest;
+import be.nabu.libs.http.api.HTTPResponse;
+import be.nabu.libs.http.api.server.AuthenticationHeader;
+import be.nabu.libs.http.api.server.SecurityHeader;
+import be.nabu.libs.http.core.DefaultHTTPRequest;
+import be.nabu.libs.http.core.HTTPUtils;
+import be.nabu.libs.http.core.ServerHeader;
+import be.nabu.libs.resources.URIUtils;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.binding.api.Window;
+import be.nabu.libs.types.java.BeanInstance;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.mime.api.ContentPart;
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.api.ModifiablePart;
+import be.nabu.utils.mime.impl.FormatException;
+import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.MimeUtils;
+import be.nabu.utils.mime.impl.PlainMimeContentPart;
+import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
+
+/**
+ * Executes a batch of sub-requests against a rest handler (or a composite handler) in a single http call.
+ * The batch is a POST of a Batch document (json, xml or cbor) to the batch path, the answer is a Results document with a result per request in the same order.
+ * Consecutive GET, HEAD and OPTIONS requests are executed in parallel on the executor, any other request waits for the requests before it and runs on its own so the batch has the same effect as sending the requests one by one.
+ * The sub-requests inherit the headers of the batch request (e.g. the authentication), a header of the sub-request replaces the inherited headers with the same name.
+ * A sub-request can not set the headers that only the server sets (the server headers and the authentication and security headers), such a sub-request gets a 400.
+ * The batch as a whole has a deadline: requests that don't finish in time are abandoned (interrupted and their response closed) and requests that were not started yet are not executed, both get a 504.
+ */
+public class RESTBatchHandler implements EventHandler<HTTPRequest, HTTPResponse> {
+
+	// headers of the batch request that describe its own content and should not be inherited
+	private static final List<String> CONTENT_HEADERS = Arrays.asList("content-type", "content-length", "content-encoding", "transfer-encoding", "accept", "accept-encoding");
+	
+	// headers that are only ever set by the server
+	private static final Set<String> SERVER_HEADERS = new HashSet<String>();
+	
+	static {
+		for (ServerHeader header : ServerHeader.values()) {
+			SERVER_HEADERS.add(header.getName().toLowerCase(Locale.ROOT));
+		}
+		SERVER_HEADERS.add(ServerHeader.NAME_AUTHENTICATION_SCHEME.toLowerCase(Locale.ROOT));
+	}
+	
+	private String path;
+	private EventHandler<HTTPRequest, HTTPResponse> handler;
+	private Executor executor;
+	private int maxRequests = 50;
+	// how long (in ms) the batch as a whole may take
+	private long timeout = 30 * 1000;
+	
+	private static Executor defaultExecutor;
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	
+	public RESTBatchHandler(String path, EventHandler<HTTPRequest, HTTPResponse> handler) {
+		this.path = path;
+		this.handler = handler;
+	}
+	
+	@Override
+	public HTTPResponse handle(HTTPRequest request) {
+		if (request.getContent() == null || !"POST".equalsIgnoreCase(request.getMethod())) {
+			return null;
+		}
+		try {
+			URI uri = URIUtils.normalize(HTTPUtils.getURI(request, false));
+			if (!uri.getPath().equals(path)) {
+				return null;
+			}
+		}
+		catch (FormatException e) {
+			throw new HTTPException(500, e);
+		}
+		String contentType = RESTNegotiator.getBaseType(MimeUtils.getContentType(request.getContent().getHeaders()));
+		if (contentType == null) {
+			contentType = MediaType.APPLICATION_JSON;
+		}
+		Batch batch = unmarshal(request, contentType);
+		List<Request> requests = batch == null || batch.getRequests() == null ? new ArrayList<Request>() : batch.getRequests();
+		if (requests.size() > maxRequests) {
+			throw new HTTPException(413, "A batch can contain at most " + maxRequests + " requests");
+		}
+		long deadline = System.currentTimeMillis() + timeout;
+		List<Result> results = new ArrayList<Result>();
+		int start = 0;
+		while (start < requests.size()) {
+			// once the time is up, the remaining requests are not executed at all
+			if (System.currentTimeMillis() >= deadline) {
+				for (Request remaining : requests.subList(start, requests.size())) {
+					results.add(newResult(remaining, 504, "The batch did not finish in time"));
+				}
+				break;
+			}
+			// a run of safe requests is executed in parallel, anything else runs on its own
+			int end = start;
+			while (end < requests.size() && isSafe(requests.get(end))) {
+				end++;
+			}
+			if (end == start) {
+				end++;
+			}
+			results.addAll(execute(request, requests.subList(start, end), deadline));
+			start = end;
+		}
+		Results envelope = new Results();
+		envelope.setResponses(results);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			RESTBindings.newMarshallable(RESTBindings.resolve(Results.class), contentType).marshal(output, new BeanInstance<Results>(envelope));
+		}
+		catch (IOException e) {
+			throw new HTTPException(500, e);
+		}
+		return HTTPUtils.newResponse(request, contentType, IOUtils.wrap(output.toByteArray(), true));
+	}
+
+	private static boolean isSafe(Request request) {
+		RESTVerb verb = request.getMethod() == null ? RESTVerb.GET : RESTVerb.parse(request.getMethod());
+		return verb == RESTVerb.GET || verb == RESTVerb.HEAD || verb == RESTVerb.OPTIONS;
+	}
+	
+	private Batch unmarshal(HTTPRequest request, String contentType) {
+		if (!(request.getContent() instanceof ContentPart)) {
+			throw new HTTPException(400, "The batch has no content");
+		}
+		try {
+			ReadableContainer<ByteBuffer> readable = ((ContentPart) request.getContent()).getReadable();
+			ComplexType type = RESTBindings.resolve(Batch.class);
+			Object unmarshalled = RESTBindings.newUnmarshallable(type, contentType).unmarshal(IOUtils.toInputStream(readable), new Window[0]);
+			return unmarshalled == null ? null : (Batch) ((BeanInstance<?>) unmarshalled).getUnwrapped();
+		}
+		catch (HTTPException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new HTTPException(400, "Could not parse the batch", e);
+		}
+	}
+	
+	private List<Result> execute(HTTPRequest parent, List<Request> requests, long deadline) {
+		List<Item> items = new ArrayList<Item>();
+		for (Request request : requests) {
+			Item item = new Item(parent, request);
+			try {
+				getExecutor().execute(item);
+				items.add(item);
+			}
+			catch (RejectedExecutionException e) {
+				item.failure = new HTTPException(503, "The server is too busy to execute the request");
+				item.done = true;
+				items.add(item);
+			}
+		}
+		List<Result> results = new ArrayList<Result>();
+		for (Item item : items) {
+			try {
+				if (!item.await(deadline)) {
+					// the response is closed when it arrives
+					item.abandon();
+					results.add(newResult(item.request, 504, "The request did not finish in time"));
+				}
+				else {
+					results.add(toResult(item));
+				}
+			}
+			catch (InterruptedException e) {
+				for (Item abandoned : items) {
+					abandoned.abandon();
+				}
+				Thread.currentThread().interrupt();
+				throw new HTTPException(503, e);
+			}
+		}
+		return results;
+	}
+	
+	private Result toResult(Item item) {
+		if (item.failure instanceof HTTPException) {
+			return newResult(item.request, ((HTTPException) item.failure).getCode(), item.failure.getMessage());
+		}
+		else if (item.failure != null) {
+			logger.error("Could not execute the batched request " + item.request.getMethod() + " " + item.request.getPath(), item.failure);
+			return newResult(item.request, 500, item.failure.getMessage());
+		}
+		else if (item.response == null) {
+			return newResult(item.request, 404, "Not found");
+		}
+		try {
+			return toResult(item.request, item.response);
+		}
+		catch (IOException e) {
+			logger.error("Could not read the response of the batched request " + item.request.getMethod() + " " + item.request.getPath(), e);
+			return newResult(item.request, 500, e.getMessage());
+		}
+	}
+	
+	/**
+	 * A single sub-request on the executor, it can be abandoned when the batch runs out of time in which case it is interrupted and its response is closed
+	 */
+	private class Item implements Runnable {
+		private HTTPRequest parent;
+		private Request request;
+		private HTTPResponse response;
+		private Exception failure;
+		private boolean done, abandoned;
+		private Thread thread;
+		
+		Item(HTTPRequest parent, Request request) {
+			this.parent = parent;
+			this.request = request;
+		}
+		
+		@Override
+		public void run() {
+			synchronized(this) {
+				if (abandoned) {
+					return;
+				}
+				thread = Thread.currentThread();
+			}
+			HTTPResponse response = null;
+			Exception failure = null;
+			try {
+				response = handler.handle(newRequest(parent, request));
+			}
+			catch (Exception e) {
+				failure = e;
+			}
+			synchronized(this) {
+				thread = null;
+				// an interrupt from abandon() should not affect the next task on this thread
+				Thread.interrupted();
+				if (abandoned) {
+					close(response);
+				}
+				else {
+					this.response = response;
+					this.failure = failure;
+				}
+				done = true;
+				notifyAll();
+			}
+		}
+		
+		synchronized boolean await(long deadline) throws InterruptedException {
+			while (!done) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				wait(remaining);
+			}
+			return true;
+		}
+		
+		synchronized void abandon() {
+			if (!abandoned) {
+				abandoned = true;
+				if (thread != null) {
+					thread.interrupt();
+				}
+				// finished in the meantime
+				else if (done) {
+					close(response);
+					response = null;
+				}
+			}
+		}
+	}
+	
+	private static void close(HTTPResponse response) {
+		if (response != null && response.getContent() instanceof ContentPart) {
+			try {
+				ReadableContainer<ByteBuffer> readable = ((ContentPart) response.getContent()).getReadable();
+				if (readable != null) {
+					readable.close();
+				}
+			}
+			catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+	
+	private static HTTPRequest newRequest(HTTPRequest parent, Request request) {
+		if (request.getPath() == null) {
+			throw new HTTPException(400, "The batched request has no path");
+		}
+		// the headers set by the server itself (e.g. the remote address and the authentication) can not come from the client
+		Set<String> reserved = new HashSet<String>(SERVER_HEADERS);
+		for (Header header : parent.getContent().getHeaders()) {
+			if (header instanceof AuthenticationHeader || header instanceof SecurityHeader) {
+				reserved.add(header.getName().toLowerCase(Locale.ROOT));
+			}
+		}
+		List<Header> own = new ArrayList<Header>();
+		Set<String> names = new HashSet<String>();
+		if (request.getHeaders() != null) {
+			for (Field field : request.getHeaders()) {
+				if (field.getName() != null && field.getValue() != null) {
+					String name = field.getName().toLowerCase(Locale.ROOT);
+					if (reserved.contains(name)) {
+						throw new HTTPException(400, "The header '" + field.getName() + "' can not be set on a batched request");
+					}
+					own.add(new MimeHeader(field.getName(), field.getValue()));
+					names.add(name);
+				}
+			}
+		}
+		List<Header> headers = new ArrayList<Header>();
+		// the original header objects are kept, this is how the server passes along the authentication
+		// a header of the sub-request replaces the headers of the batch request with the same name
+		for (Header header : parent.getContent().getHeaders()) {
+			String name = header.getName().toLowerCase(Locale.ROOT);
+			if (!CONTENT_HEADERS.contains(name) && !names.contains(name)) {
+				headers.add(header);
+			}
+		}
+		headers.addAll(own);
+		String method = request.getMethod() == null ? "GET" : request.getMethod().toUpperCase(Locale.ROOT);
+		ModifiablePart content;
+		if (request.getBody() == null) {
+			content = new PlainMimeEmptyPart(null, headers.toArray(new Header[headers.size()]));
+		}
+		else {
+			byte [] body;
+			try {
+				body = request.isBase64() ? Base64.getDecoder().decode(request.getBody()) : request.getBody().getBytes(RESTBindings.UTF8);
+			}
+			catch (IllegalArgumentException e) {
+				throw new HTTPException(400, "The body of the batched request is not valid base64", e);
+			}
+			headers.add(new MimeHeader("Content-Length", Integer.toString(body.length)));
+			content = new PlainMimeContentPart(null, IOUtils.wrap(body, true), headers.toArray(new Header[headers.size()]));
+		}
+		return new DefaultHTTPRequest(method, request.getPath(), content);
+	}
+	
+	private static Result toResult(Request request, HTTPResponse response) throws IOException {
+		Result result = new Result();
+		result.setId(request.getId());
+		result.setStatus(response.getCode());
+		List<Field> fields = new ArrayList<Field>();
+		String contentType = null;
+		if (response.getContent() != null) {
+			for (Header header : response.getContent().getHeaders()) {
+				String name = header.getName().toLowerCase(Locale.ROOT);
+				// they describe how the response is sent, not the response itself
+				if (name.equals("content-length") || name.equals("transfer-encoding")) {
+					continue;
+				}
+				else if (name.equals("content-type")) {
+					contentType = RESTNegotiator.getFullValue(header);
+				}
+				fields.add(new Field(header.getName(), RESTNegotiator.getFullValue(header)));
+			}
+		}
+		result.setHeaders(fields);
+		if (response.getContent() instanceof ContentPart) {
+			ReadableContainer<ByteBuffer> readable = ((ContentPart) response.getContent()).getReadable();
+			if (readable != null) {
+				try {
+					byte [] content = IOUtils.toBytes(readable);
+					if (isText(contentType)) {
+						Charset charset = RESTNegotiator.getCharset(contentType);
+						result.setBody(new String(content, charset == null ? RESTBindings.UTF8 : charset));
+					}
+					else {
+						result.setBody(Base64.getEncoder().encodeToString(content));
+						result.setBase64(true);
+					}
+				}
+				finally {
+					readable.close();
+				}
+			}
+		}
+		return result;
+	}
+	
+	private static boolean isText(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		String baseType = RESTNegotiator.getBaseType(contentType);
+		return baseType.startsWith("text/") || baseType.endsWith("json") || baseType.endsWith("xml") || RESTNegotiator.getCharset(contentType) != null;
+	}
+	
+	private static Result newResult(Request request, int status, String message) {
+		Result result = new Result();
+		result.setId(request.getId());
+		result.setStatus(status);
+		result.setBody(message);
+		return result;
+	}
+	
+	public Executor getExecutor() {
+		if (executor == null) {
+			synchronized(RESTBatchHandler.class) {
+				if (defaultExecutor == null) {
+					// bounded in threads and queued requests, anything beyond that is rejected with a 503
+					int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+					defaultExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1000), new ThreadFactory() {
+						private AtomicInteger counter = new AtomicInteger();
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "rest-batch-" + counter.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+				}
+			}
+			return defaultExecutor;
+		}
+		return executor;
+	}
+
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	public int getMaxRequests() {
+		return maxRequests;
+	}
+
+	public void setMaxRequests(int maxRequests) {
+		this.maxRequests = maxRequests;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public String getPath() {
+		return path;
+	}
+	
+	public static class Batch {
+		private List<Request> requests;
+		public List<Request> getRequests() {
+			return requests;
+		}
+		public void setRequests(List<Request> requests) {
+			this.requests = requests;
+		}
+	}
+	
+	public static class Request {
+		private String id, method, path, body;
+		private List<Field> headers;
+		private boolean base64;
+		/**
+		 * An optional identifier that is copied to the result
+		 */
+		public String getId() {
+			return id;
+		}
+		public void setId(String id) {
+			this.id = id;
+		}
+		/**
+		 * GET by default
+		 */
+		public String getMethod() {
+			return method;
+		}
+		public void setMethod(String method) {
+			this.method = method;
+		}
+		/**
+		 * The full path (and query) as it would be requested from the server
+		 */
+		public String getPath() {
+			return path;
+		}
+		public void setPath(String path) {
+			this.path = path;
+		}
+		public String getBody() {
+			return body;
+		}
+		public void setBody(String body) {
+			this.body = body;
+		}
+		public List<Field> getHeaders() {
+			return headers;
+		}
+		public void setHeaders(List<Field> headers) {
+			this.headers = headers;
+		}
+		/**
+		 * Whether the body is base64 encoded (for binary content)
+		 */
+		public boolean isBase64() {
+			return base64;
+		}
+		public void setBase64(boolean base64) {
+			this.base64 = base64;
+		}
+	}
+	
+	public static class Results {
+		private List<Result> responses;
+		public List<Result> getResponses() {
+			return responses;
+		}
+		public void setResponses(List<Result> responses) {
+			this.responses = responses;
+		}
+	}
+	
+	public static class Result {
+		private String id, body;
+		private int status;
+		private List<Field> headers;
+		private boolean base64;
+		public String getId() {
+			return id;
+		}
+		public void setId(String id) {
+			this.id = id;
+		}
+		public int getStatus() {
+			return status;
+		}
+		public void setStatus(int status) {
+			this.status = status;
+		}
+		/**
+		 * Text content is passed as is, anything else is base64 encoded
+		 */
+		public String getBody() {
+			return body;
+		}
+		public void setBody(String body) {
+			this.body = body;
+		}
+		public List<Field> getHeaders() {
+			return headers;
+		}
+		public void setHeaders(List<Field> headers) {
+			this.headers = headers;
+		}
+		public boolean isBase64() {
+			return base64;
+		}
+		public void setBase64(boolean base64) {
+			this.base64 = base64;
+		}
+	}
+	
+	// a header, named differently to avoid confusion with the mime header
+	public static class Field {
+		private String name, value;
+		public Field() {
+			// for unmarshalling
+		}
+		public Field(String name, String value) {
+			this.name = name;
+			this.value = value;
+		}
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+		public String getValue() {
+			return value;
+		}
+		public void setValue(String value) {
+			this.value = value;
+		}
+	}
+}
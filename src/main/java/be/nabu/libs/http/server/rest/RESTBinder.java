@@ -0,0 +1,176 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.converter.ConverterFactory;
+import be.nabu.libs.converter.api.Converter;
+import be.nabu.libs.http.api.HTTPRequest;
+import be.nabu.libs.resources.URIUtils;
+
+/**
+ * Binds a single method parameter from the request.
+ * The binders are created once per method with the target type, the conversion and the default value already resolved so a request only pays for the actual lookup.
+ */
+abstract class RESTBinder {
+
+	private static Converter converter = ConverterFactory.getInstance().getConverter();
+
+	// the boxed defaults for primitives, a missing value can not be passed as null
+	private static Map<Class<?>, Object> primitiveDefaults = new HashMap<Class<?>, Object>();
+	private static Map<Class<?>, Class<?>> wrappers = new HashMap<Class<?>, Class<?>>();
+	
+	static {
+		primitiveDefaults.put(boolean.class, false);
+		primitiveDefaults.put(byte.class, (byte) 0);
+		primitiveDefaults.put(short.class, (short) 0);
+		primitiveDefaults.put(char.class, (char) 0);
+		primitiveDefaults.put(int.class, 0);
+		primitiveDefaults.put(long.class, 0l);
+		primitiveDefaults.put(float.class, 0f);
+		primitiveDefaults.put(double.class, 0d);
+		wrappers.put(boolean.class, Boolean.class);
+		wrappers.put(byte.class, Byte.class);
+		wrappers.put(short.class, Short.class);
+		wrappers.put(char.class, Character.class);
+		wrappers.put(int.class, Integer.class);
+		wrappers.put(long.class, Long.class);
+		wrappers.put(float.class, Float.class);
+		wrappers.put(double.class, Double.class);
+	}
+
+	abstract Object bind(Context context) throws IOException, ParseException;
+
+	/**
+	 * Binds a value that is looked up by name (query, header, path, form), it is converted to the target type and replaced with the default if missing
+	 */
+	static abstract class Value extends RESTBinder {
+		
+		private Class<?> type;
+		private boolean acceptsString;
+		private Object defaultValue;
+
+		Value(Class<?> type, String defaultValue) {
+			// the invoker unboxes the wrapper for a primitive parameter
+			this.type = wrappers.containsKey(type) ? wrappers.get(type) : type;
+			this.acceptsString = this.type.isAssignableFrom(String.class);
+			this.defaultValue = defaultValue == null ? primitiveDefaults.get(type) : convert(defaultValue);
+			if (defaultValue != null && this.defaultValue == null) {
+				throw new IllegalArgumentException("The default value '" + defaultValue + "' can not be converted to: " + type);
+			}
+		}
+		
+		abstract Object getValue(Context context) throws IOException;
+
+		@Override
+		final Object bind(Context context) throws IOException {
+			Object value = getValue(context);
+			return value == null ? defaultValue : convert(value);
+		}
+		
+		private Object convert(Object value) {
+			if ((acceptsString && value instanceof String) || type.isInstance(value)) {
+				return value;
+			}
+			return converter.convert(value, type);
+		}
+		
+		static String first(List<String> values) {
+			return values == null || values.isEmpty() ? null : values.get(0);
+		}
+	}
+	
+	/**
+	 * The state of a single request that is shared by the binders, anything that is not needed by every method is resolved on first use
+	 */
+	static class Context {
+		private URI uri;
+		private HTTPRequest request;
+		private String [] pathValues;
+		private String contentType;
+		private Charset charset;
+		private Map<String, List<String>> queryValues, formValues;
+		private RESTMultipartReader multipart;
+		private Map<String, List<RESTFormPart>> formParts;
+		private RESTAsyncResponse asyncResponse;
+
+		Context(URI uri, HTTPRequest request, String [] pathValues, String contentType, Charset charset) {
+			this.uri = uri;
+			this.request = request;
+			this.pathValues = pathValues;
+			this.contentType = contentType;
+			this.charset = charset;
+		}
+		
+		URI getUri() {
+			return uri;
+		}
+		HTTPRequest getRequest() {
+			return request;
+		}
+		String [] getPathValues() {
+			return pathValues;
+		}
+		String getContentType() {
+			return contentType;
+		}
+		Charset getCharset() {
+			return charset;
+		}
+		// most methods have no query parameters so the query is only parsed when asked for
+		Map<String, List<String>> getQueryValues() {
+			if (queryValues == null) {
+				queryValues = URIUtils.getQueryProperties(uri);
+			}
+			return queryValues;
+		}
+		Map<String, List<String>> getFormValues() {
+			return formValues;
+		}
+		void setFormValues(Map<String, List<String>> formValues) {
+			this.formValues = formValues;
+		}
+		RESTMultipartReader getMultipart() {
+			return multipart;
+		}
+		void setMultipart(RESTMultipartReader multipart) {
+			this.multipart = multipart;
+		}
+		// the parameters can be in any order so all the parts are buffered
+		Map<String, List<RESTFormPart>> getFormParts(RESTHandler handler) throws IOException {
+			if (formParts == null) {
+				formParts = multipart.readAll(handler.getMultipartThreshold(), handler.getMultipartDirectory(), handler.getMultipartMaxParts(), handler.getMultipartMaxSize());
+			}
+			return formParts;
+		}
+		RESTAsyncResponse getAsyncResponse() {
+			return asyncResponse;
+		}
+		void setAsyncResponse(RESTAsyncResponse asyncResponse) {
+			this.asyncResponse = asyncResponse;
+		}
+	}
+}
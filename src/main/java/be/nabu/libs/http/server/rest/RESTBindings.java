@@ -0,0 +1,166 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+package be.nabu.libs.http.server.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+import javax.ws.rs.core.MediaType;
+
+import be.nabu.libs.http.HTTPException;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.binding.api.MarshallableBinding;
+import be.nabu.libs.types.binding.api.UnmarshallableBinding;
+import be.nabu.libs.types.binding.json.JSONBinding;
+import be.nabu.libs.types.binding.xml.XMLBinding;
+import be.nabu.libs.types.java.BeanResolver;
+
+/**
+ * The bindings keep parser state and are not guaranteed to be thread safe so we don't share them across requests.
+ * Instead the expensive part (resolving the type) is cached and a binding with the correct configuration is created from it.
+ */
+public class RESTBindings {
+
+	// the resolved types for runtime classes, e.g. for polymorphic return values
+	private static BoundedCache<Class<?>, ComplexType> types = new BoundedCache<Class<?>, ComplexType>(256);
+	
+	public static ComplexType resolve(Class<?> clazz) {
+		ComplexType type = types.get(clazz);
+		if (type == null) {
+			type = (ComplexType) BeanResolver.getInstance().resolve(clazz);
+			types.put(clazz, type);
+		}
+		return type;
+	}
+	
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	public static final RESTCollectionCodec JSON = new RESTCollectionCodec() {
+		@Override
+		public UnmarshallableBinding newUnmarshallable(ComplexType type, Charset charset) {
+			return newJSONBinding(type, charset);
+		}
+		@Override
+		public MarshallableBinding newMarshallable(ComplexType type, Charset charset) {
+			return new JSONBinding(type, charset);
+		}
+		@Override
+		public Iterator<Object> newIterator(Class<?> elementType, InputStream input, Charset charset) {
+			return RESTCollectionReader.newJSONIterator(elementType, input, charset);
+		}
+		@Override
+		public void write(OutputStream output, Iterator<?> elements, RESTProjection projection) throws IOException {
+			RESTCollectionWriter.writeJSON(output, elements, projection, false);
+		}
+	};
+	
+	// single values are plain json, collections are written as one json document per line
+	public static final RESTCollectionCodec NDJSON = new RESTCollectionCodec() {
+		@Override
+		public UnmarshallableBinding newUnmarshallable(ComplexType type, Charset charset) {
+			return newJSONBinding(type, charset);
+		}
+		@Override
+		public MarshallableBinding newMarshallable(ComplexType type, Charset charset) {
+			return new JSONBinding(type, charset);
+		}
+		@Override
+		public Iterator<Object> newIterator(Class<?> elementType, InputStream input, Charset charset) {
+			throw new HTTPException(415, "Newline delimited json is not supported for requests");
+		}
+		@Override
+		public void write(OutputStream output, Iterator<?> elements, RESTProjection projection) throws IOException {
+			RESTCollectionWriter.writeJSON(output, elements, projection, true);
+		}
+	};
+	
+	public static final RESTCollectionCodec XML = new RESTCollectionCodec() {
+		@Override
+		public UnmarshallableBinding newUnmarshallable(ComplexType type, Charset charset) {
+			return new XMLBinding(type, charset);
+		}
+		@Override
+		public MarshallableBinding newMarshallable(ComplexType type, Charset charset) {
+			return new XMLBinding(type, charset);
+		}
+		@Override
+		public Iterator<Object> newIterator(Class<?> elementType, InputStream input, Charset charset) {
+			return RESTCollectionReader.newXMLIterator(elementType, input, charset);
+		}
+		@Override
+		public void write(OutputStream output, Iterator<?> elements, RESTProjection projection) throws IOException {
+			RESTCollectionWriter.writeXML(output, elements, projection);
+		}
+	};
+	
+	// a custom codec with different limits can stream by implementing newIterator with its own configured binding
+	public static final RESTCollectionCodec CBOR = new RESTCollectionCodec() {
+		@Override
+		public UnmarshallableBinding newUnmarshallable(ComplexType type, Charset charset) {
+			return new CBORBinding(type);
+		}
+		@Override
+		public MarshallableBinding newMarshallable(ComplexType type, Charset charset) {
+			return new CBORBinding(type);
+		}
+		@Override
+		public Iterator<Object> newIterator(Class<?> elementType, InputStream input, Charset charset) {
+			return new CBORBinding(null).newIterator(elementType, input);
+		}
+		@Override
+		public void write(OutputStream output, Iterator<?> elements, RESTProjection projection) throws IOException {
+			CBORBinding.write(output, elements, projection);
+		}
+	};
+	
+	public static UnmarshallableBinding newUnmarshallable(ComplexType type, String mediaType) {
+		return newUnmarshallable(type, mediaType, UTF8);
+	}
+	
+	public static UnmarshallableBinding newUnmarshallable(ComplexType type, String mediaType, Charset charset) {
+		return getDefaultCodec(mediaType).newUnmarshallable(type, charset == null ? UTF8 : charset);
+	}
+	
+	public static MarshallableBinding newMarshallable(ComplexType type, String mediaType) {
+		return getDefaultCodec(mediaType).newMarshallable(type, UTF8);
+	}
+	
+	// anything we don't recognize is treated as xml, as it always has been
+	private static RESTCodec getDefaultCodec(String mediaType) {
+		if (MediaType.APPLICATION_JSON.equals(mediaType)) {
+			return JSON;
+		}
+		else if (CBORBinding.APPLICATION_CBOR.equals(mediaType)) {
+			return CBOR;
+		}
+		return XML;
+	}
+	
+	private static JSONBinding newJSONBinding(ComplexType type, Charset charset) {
+		JSONBinding binding = new JSONBinding(type, charset);
+		binding.setEnableMapSupport(true);
+		// allow elements we don't know, needed to allow this in maps...
+		binding.setAllowDynamicElements(true);
+		binding.setIgnoreRootIfArrayWrapper(true);
+		// does not work well with the enable map support! we don't add dynamic keys then!
+//		binding.setIgnoreUnknownElements(true);
+		return binding;
+	}
+}
@@ -0,0 +1,33 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.nio.charset.Charset;
+
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.binding.api.MarshallableBinding;
+import be.nabu.libs.types.binding.api.UnmarshallableBinding;
+
+/**
+ * Creates the bindings for a media type, codecs are registered on the rest handler.
+ * A new binding is requested for every request so it does not have to be thread safe.
+ */
+public interface RESTCodec {
+	public UnmarshallableBinding newUnmarshallable(ComplexType type, Charset charset);
+	public MarshallableBinding newMarshallable(ComplexType type, Charset charset);
+}
@@ -0,0 +1,40 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * A codec that can also read and write collections one element at a time, this is required for Stream, Iterator and Iterable parameters and responses.
+ * Requests and responses for codecs that don't implement this are rejected with a 415 and 406 respectively.
+ */
+public interface RESTCollectionCodec extends RESTCodec {
+	/**
+	 * The elements are parsed as they are pulled, if the iterator is AutoCloseable it is closed once the method is done with it
+	 */
+	public Iterator<Object> newIterator(Class<?> elementType, InputStream input, Charset charset);
+	/**
+	 * Writes the elements as they are pulled from the iterator, the projection (if not null) applies to every element
+	 */
+	public void write(OutputStream output, Iterator<?> elements, RESTProjection projection) throws IOException;
+}
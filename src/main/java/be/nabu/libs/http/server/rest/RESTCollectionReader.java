@@ -0,0 +1,439 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.ws.rs.core.MediaType;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import be.nabu.libs.converter.ConverterFactory;
+import be.nabu.libs.converter.api.Converter;
+import be.nabu.libs.http.HTTPException;
+import be.nabu.libs.types.SimpleTypeWrapperFactory;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.binding.api.Window;
+import be.nabu.libs.types.java.BeanInstance;
+
+/**
+ * Parses a json array or the children of an xml root element one element at a time as they are pulled by the method.
+ * Only a single element is ever in memory: the array is split at the token level and each element is handed to the binding separately.
+ * The json array is split on its bytes so the charset of the request must be ascii compatible (like utf-8 or iso-8859-1).
+ */
+public class RESTCollectionReader {
+
+	private static Converter converter = ConverterFactory.getInstance().getConverter();
+
+	/**
+	 * The elements are parsed by the collection codec of the request type, the charset is the one from the content type of the request (if any)
+	 */
+	public static Object newCollection(Class<?> collectionType, Class<?> elementType, InputStream input, RESTCollectionCodec codec, Charset charset) {
+		return toCollection(collectionType, codec.newIterator(elementType, input, charset));
+	}
+	
+	/**
+	 * Splits a json array, if the charset is null utf-8 is assumed
+	 */
+	public static Iterator<Object> newJSONIterator(Class<?> elementType, InputStream input, Charset charset) {
+		return new JSONIterator(elementType, input, charset == null ? RESTBindings.UTF8 : charset);
+	}
+	
+	/**
+	 * Splits the children of the xml root, if the charset is null the encoding in the xml declaration is used
+	 */
+	public static Iterator<Object> newXMLIterator(Class<?> elementType, InputStream input, Charset charset) {
+		return new XMLIterator(elementType, input, charset);
+	}
+	
+	/**
+	 * Wraps the iterator in the requested collection type, if the iterator is AutoCloseable it is closed along with a stream
+	 */
+	public static Object toCollection(Class<?> collectionType, final Iterator<?> iterator) {
+		if (Stream.class.equals(collectionType)) {
+			return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+				.onClose(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (iterator instanceof AutoCloseable) {
+								((AutoCloseable) iterator).close();
+							}
+						}
+						catch (Exception e) {
+							// ignore
+						}
+					}
+				});
+		}
+		else if (Iterable.class.equals(collectionType)) {
+			return new Iterable<Object>() {
+				private boolean iterated;
+				@SuppressWarnings("unchecked")
+				@Override
+				public synchronized Iterator<Object> iterator() {
+					if (iterated) {
+						throw new IllegalStateException("The request body can only be iterated once");
+					}
+					iterated = true;
+					return (Iterator<Object>) iterator;
+				}
+			};
+		}
+		return iterator;
+	}
+
+	/**
+	 * Whether the given parameter type is a collection that should be read element by element
+	 */
+	public static boolean isCollection(Class<?> type) {
+		return Stream.class.equals(type) || Iterator.class.equals(type) || Iterable.class.equals(type);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object unmarshal(Class<?> elementType, byte [] element, String contentType, Charset charset) {
+		try {
+			if (isSimple(elementType)) {
+				String value = new String(element, charset);
+				if (MediaType.APPLICATION_JSON.equals(contentType)) {
+					value = value.trim();
+					if (value.equals("null")) {
+						return null;
+					}
+					else if (value.startsWith("\"")) {
+						value = unquote(value);
+					}
+				}
+				return converter.convert(value, elementType);
+			}
+			ComplexContent content = RESTBindings.newUnmarshallable(RESTBindings.resolve(elementType), contentType, charset)
+				.unmarshal(new ByteArrayInputStream(element), new Window[0]);
+			return content instanceof BeanInstance ? ((BeanInstance) content).getUnwrapped() : content;
+		}
+		catch (HTTPException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new HTTPException(400, e);
+		}
+	}
+
+	private static boolean isSimple(Class<?> type) {
+		return SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(type) != null;
+	}
+
+	private static String unquote(String value) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 1; i < value.length() - 1; i++) {
+			char character = value.charAt(i);
+			if (character == '\\') {
+				char escaped = value.charAt(++i);
+				switch (escaped) {
+					case 'n': builder.append('\n'); break;
+					case 'r': builder.append('\r'); break;
+					case 't': builder.append('\t'); break;
+					case 'b': builder.append('\b'); break;
+					case 'f': builder.append('\f'); break;
+					case 'u': builder.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16)); i += 4; break;
+					default: builder.append(escaped);
+				}
+			}
+			else {
+				builder.append(character);
+			}
+		}
+		return builder.toString();
+	}
+
+	private static abstract class ElementIterator implements Iterator<Object>, AutoCloseable {
+		private byte [] next;
+		private boolean done;
+		protected Class<?> elementType;
+
+		ElementIterator(Class<?> elementType) {
+			this.elementType = elementType;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && !done) {
+				try {
+					next = readNext();
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				catch (XMLStreamException e) {
+					throw new HTTPException(400, e);
+				}
+				done = next == null;
+			}
+			return next != null;
+		}
+
+		@Override
+		public Object next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			byte [] element = next;
+			next = null;
+			return unmarshal(element);
+		}
+
+		protected abstract Object unmarshal(byte [] element);
+
+		// returns null if there are no more elements
+		protected abstract byte [] readNext() throws IOException, XMLStreamException;
+	}
+
+	private static class JSONIterator extends ElementIterator {
+		private InputStream input;
+		private Charset charset;
+		private boolean started;
+
+		JSONIterator(Class<?> elementType, InputStream input, Charset charset) {
+			super(elementType);
+			this.input = new BufferedInputStream(input);
+			this.charset = charset;
+		}
+
+		// the elements are the raw bytes of the request
+		@Override
+		protected Object unmarshal(byte [] element) {
+			return RESTCollectionReader.unmarshal(elementType, element, MediaType.APPLICATION_JSON, charset);
+		}
+
+		@Override
+		protected byte[] readNext() throws IOException {
+			int read = skipWhitespace();
+			if (!started) {
+				if (read != '[') {
+					throw new HTTPException(400, "Expecting a json array");
+				}
+				started = true;
+				read = skipWhitespace();
+				if (read == ']') {
+					return null;
+				}
+			}
+			else if (read == ',') {
+				read = skipWhitespace();
+			}
+			else if (read == ']' || read < 0) {
+				return null;
+			}
+			else {
+				throw new HTTPException(400, "Unexpected character in json array: " + (char) read);
+			}
+			ByteArrayOutputStream element = new ByteArrayOutputStream();
+			int depth = 0;
+			boolean inString = false, escaped = false;
+			while (read >= 0) {
+				if (inString) {
+					if (escaped) {
+						escaped = false;
+					}
+					else if (read == '\\') {
+						escaped = true;
+					}
+					else if (read == '"') {
+						inString = false;
+					}
+				}
+				else if (read == '"') {
+					inString = true;
+				}
+				else if (read == '{' || read == '[') {
+					depth++;
+				}
+				else if (read == '}' || read == ']') {
+					// the closing bracket of the array itself
+					if (depth == 0) {
+						if (element.size() == 0) {
+							throw new HTTPException(400, "Empty element in json array");
+						}
+						input.reset();
+						break;
+					}
+					depth--;
+				}
+				else if (read == ',' && depth == 0) {
+					if (element.size() == 0) {
+						throw new HTTPException(400, "Empty element in json array");
+					}
+					input.reset();
+					break;
+				}
+				element.write(read);
+				input.mark(1);
+				read = input.read();
+			}
+			if (read < 0) {
+				throw new HTTPException(400, "Unexpected end of json array");
+			}
+			return element.toByteArray();
+		}
+
+		private int skipWhitespace() throws IOException {
+			int read = input.read();
+			while (read == ' ' || read == '\t' || read == '\n' || read == '\r') {
+				read = input.read();
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			input.close();
+		}
+	}
+
+	private static class XMLIterator extends ElementIterator {
+		private XMLStreamReader reader;
+		private InputStream input;
+		private Charset charset;
+		private boolean started;
+		private XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+		// the namespaces declared on the root element, the children inherit them
+		private Map<String, String> namespaces = new LinkedHashMap<String, String>();
+
+		XMLIterator(Class<?> elementType, InputStream input, Charset charset) {
+			super(elementType);
+			this.input = input;
+			this.charset = charset;
+		}
+
+		// the elements are copied into utf-8 documents, regardless of the charset of the request
+		@Override
+		protected Object unmarshal(byte [] element) {
+			return RESTCollectionReader.unmarshal(elementType, element, MediaType.APPLICATION_XML, RESTBindings.UTF8);
+		}
+
+		@Override
+		protected byte[] readNext() throws XMLStreamException {
+			if (!started) {
+				XMLInputFactory factory = XMLInputFactory.newInstance();
+				factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+				factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+				reader = charset == null ? factory.createXMLStreamReader(input) : factory.createXMLStreamReader(input, charset.name());
+				// move to the root element
+				reader.nextTag();
+				for (int i = 0; i < reader.getNamespaceCount(); i++) {
+					namespaces.put(reader.getNamespacePrefix(i) == null ? "" : reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+				}
+				started = true;
+			}
+			int event = reader.next();
+			while (event != XMLStreamConstants.START_ELEMENT) {
+				if (event == XMLStreamConstants.END_ELEMENT || event == XMLStreamConstants.END_DOCUMENT) {
+					return null;
+				}
+				event = reader.next();
+			}
+			// for simple types we only need the text content
+			if (isSimple(elementType)) {
+				return reader.getElementText().getBytes(RESTBindings.UTF8);
+			}
+			// copy the subtree of the child into a standalone document
+			// the same charset the binding will parse it with
+			String charset = RESTBindings.UTF8.name();
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			XMLStreamWriter writer = outputFactory.createXMLStreamWriter(output, charset);
+			writer.writeStartDocument(charset, "1.0");
+			int depth = 0;
+			do {
+				switch (event) {
+					case XMLStreamConstants.START_ELEMENT:
+						depth++;
+						writer.writeStartElement(reader.getPrefix() == null ? "" : reader.getPrefix(), reader.getLocalName(), reader.getNamespaceURI() == null ? "" : reader.getNamespaceURI());
+						Map<String, String> declared = new LinkedHashMap<String, String>();
+						// the copy is a standalone document so the element has to redeclare what it inherits from the root, attribute values (like xsi:type) may use those prefixes as well
+						if (depth == 1) {
+							declared.putAll(namespaces);
+						}
+						for (int i = 0; i < reader.getNamespaceCount(); i++) {
+							declared.put(reader.getNamespacePrefix(i) == null ? "" : reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+						}
+						for (Map.Entry<String, String> namespace : declared.entrySet()) {
+							if (namespace.getKey().isEmpty()) {
+								writer.writeDefaultNamespace(namespace.getValue());
+							}
+							else {
+								writer.writeNamespace(namespace.getKey(), namespace.getValue());
+							}
+						}
+						for (int i = 0; i < reader.getAttributeCount(); i++) {
+							String namespace = reader.getAttributeNamespace(i);
+							if (namespace == null || namespace.isEmpty()) {
+								writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+							}
+							else {
+								writer.writeAttribute(reader.getAttributePrefix(i), namespace, reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+							}
+						}
+					break;
+					case XMLStreamConstants.END_ELEMENT:
+						depth--;
+						writer.writeEndElement();
+					break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.SPACE:
+						writer.writeCharacters(reader.getText());
+					break;
+					case XMLStreamConstants.CDATA:
+						writer.writeCData(reader.getText());
+					break;
+				}
+				if (depth > 0) {
+					event = reader.next();
+				}
+			}
+			while (depth > 0);
+			writer.writeEndDocument();
+			writer.close();
+			return output.toByteArray();
+		}
+
+		@Override
+		public void close() throws Exception {
+			if (reader != null) {
+				reader.close();
+			}
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+package be.nabu.libs.http.server.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import javax.ws.rs.core.MediaType;
+
+import be.nabu.libs.types.SimpleTypeWrapperFactory;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.DefinedSimpleType;
+import be.nabu.libs.types.api.Marshallable;
+import be.nabu.libs.types.api.SimpleTypeWrapper;
+import be.nabu.libs.types.java.BeanInstance;
+
+/**
+ * Marshals the elements of a Stream, Iterator or Iterable one at a time as they are pulled, so the collection is never fully in memory.
+ * The format is determined by the collection codec of the response type, the default codecs generate a json array, newline delimited json, a cbor array or an xml document with a "list" root.
+ */
+public class RESTCollectionWriter implements RESTStreamWriter, AutoCloseable {
+
+	public static final String APPLICATION_NDJSON = "application/x-ndjson";
+	
+	private static SimpleTypeWrapper simpleTypeWrapper = SimpleTypeWrapperFactory.getInstance().getWrapper();
+	
+	private Object collection;
+	private RESTCollectionCodec codec;
+	// applied to every element
+	private RESTProjection projection;
+	
+	public RESTCollectionWriter(Object collection, RESTCollectionCodec codec) {
+		this(collection, codec, null);
+	}
+	
+	public RESTCollectionWriter(Object collection, RESTCollectionCodec codec, RESTProjection projection) {
+		this.collection = collection;
+		this.codec = codec;
+		this.projection = projection;
+	}
+	
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void write(OutputStream output) throws Exception {
+		Iterator<?> iterator;
+		if (collection instanceof Stream) {
+			iterator = ((Stream) collection).iterator();
+		}
+		else if (collection instanceof Iterator) {
+			iterator = (Iterator<?>) collection;
+		}
+		else {
+			iterator = ((Iterable<?>) collection).iterator();
+		}
+		// the bindings should not be able to close the actual output
+		OutputStream unclosable = new FilterOutputStream(output) {
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				out.write(bytes, offset, length);
+			}
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+		try {
+			codec.write(unclosable, iterator, projection);
+			unclosable.flush();
+		}
+		finally {
+			// for example a stream on top of a database cursor
+			if (collection instanceof Stream) {
+				((Stream) collection).close();
+			}
+			else if (iterator instanceof AutoCloseable) {
+				((AutoCloseable) iterator).close();
+			}
+		}
+	}
+	
+	/**
+	 * Writes a json array or, if delimited, one json document per line
+	 */
+	public static void writeJSON(OutputStream output, Iterator<?> elements, RESTProjection projection, boolean delimited) throws IOException {
+		if (!delimited) {
+			output.write('[');
+		}
+		boolean first = true;
+		while (elements.hasNext()) {
+			if (first) {
+				first = false;
+			}
+			else if (!delimited) {
+				output.write(',');
+			}
+			writeJSON(output, elements.next(), projection);
+			if (delimited) {
+				output.write('\n');
+			}
+		}
+		if (!delimited) {
+			output.write(']');
+		}
+	}
+	
+	/**
+	 * Writes an xml document with a "list" root that contains the elements
+	 */
+	public static void writeXML(OutputStream output, Iterator<?> elements, RESTProjection projection) throws IOException {
+		Charset charset = RESTBindings.UTF8;
+		output.write(("<?xml version=\"1.0\" encoding=\"" + charset.name() + "\"?><list>").getBytes(charset));
+		while (elements.hasNext()) {
+			writeXML(output, elements.next(), projection, charset);
+		}
+		output.write("</list>".getBytes(charset));
+	}
+	
+	/**
+	 * Closes the collection without writing it, for example when the response could not be scheduled
+	 */
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void close() throws Exception {
+		if (collection instanceof Stream) {
+			((Stream) collection).close();
+		}
+		else if (collection instanceof AutoCloseable) {
+			((AutoCloseable) collection).close();
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void writeJSON(OutputStream output, Object element, RESTProjection projection) throws IOException {
+		ComplexContent content = toComplexContent(element, projection);
+		if (content != null) {
+			RESTBindings.newMarshallable(content.getType(), MediaType.APPLICATION_JSON).marshal(output, content);
+		}
+		else if (element == null) {
+			output.write("null".getBytes("ASCII"));
+		}
+		else if (element instanceof Number || element instanceof Boolean) {
+			output.write(element.toString().getBytes("ASCII"));
+		}
+		else {
+			DefinedSimpleType<? extends Object> simpleType = simpleTypeWrapper.wrap(element.getClass());
+			String marshalled = simpleType instanceof Marshallable ? ((Marshallable) simpleType).marshal(element) : element.toString();
+			output.write(quote(marshalled).getBytes("UTF-8"));
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void writeXML(OutputStream output, Object element, RESTProjection projection, Charset charset) throws IOException {
+		ComplexContent content = toComplexContent(element, projection);
+		if (content != null) {
+			// we buffer a single element so we can strip the xml declaration
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			RESTBindings.newMarshallable(content.getType(), MediaType.APPLICATION_XML).marshal(buffer, content);
+			String marshalled = new String(buffer.toByteArray(), charset);
+			if (marshalled.startsWith("<?xml")) {
+				marshalled = marshalled.substring(marshalled.indexOf("?>") + 2).trim();
+			}
+			output.write(marshalled.getBytes(charset));
+		}
+		else if (element != null) {
+			DefinedSimpleType<? extends Object> simpleType = simpleTypeWrapper.wrap(element.getClass());
+			String marshalled = simpleType instanceof Marshallable ? ((Marshallable) simpleType).marshal(element) : element.toString();
+			output.write(("<element>" + marshalled.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;") + "</element>").getBytes(charset));
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ComplexContent toComplexContent(Object element, RESTProjection projection) {
+		ComplexContent content = null;
+		if (element instanceof ComplexContent) {
+			content = (ComplexContent) element;
+		}
+		else if (element != null && simpleTypeWrapper.wrap(element.getClass()) == null) {
+			content = new BeanInstance(element);
+		}
+		return content == null || projection == null ? content : new RESTProjectedContent(content, projection);
+	}
+	
+	static String quote(String value) {
+		StringBuilder builder = new StringBuilder(value.length() + 2);
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char character = value.charAt(i);
+			switch (character) {
+				case '"': builder.append("\\\""); break;
+				case '\\': builder.append("\\\\"); break;
+				case '\n': builder.append("\\n"); break;
+				case '\r': builder.append("\\r"); break;
+				case '\t': builder.append("\\t"); break;
+				default:
+					if (character < 0x20) {
+						builder.append(String.format("\\u%04x", (int) character));
+					}
+					else {
+						builder.append(character);
+					}
+			}
+		}
+		builder.append('"');
+		return builder.toString();
+	}
+}
@@ -0,0 +1,142 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import be.nabu.libs.authentication.api.RoleHandler;
+import be.nabu.libs.events.api.EventHandler;
+import be.nabu.libs.http.HTTPException;
+import be.nabu.libs.http.api.HTTPRequest;
+import be.nabu.libs.http.api.HTTPResponse;
+import be.nabu.libs.http.core.HTTPUtils;
+import be.nabu.libs.resources.URIUtils;
+import be.nabu.utils.mime.impl.FormatException;
+
+/**
+ * Exposes multiple rest classes behind a single handler.
+ * The routes of all the classes (class path + method path) are merged into one router so a request is resolved with a single lookup instead of offering it to a handler per class.
+ * Routes that conflict with one another (the same verb for paths that match the same requests) are rejected when the handler is created.
+ */
+public class RESTCompositeHandler implements EventHandler<HTTPRequest, HTTPResponse> {
+
+	private String applicationPath;
+	private List<RESTHandler> handlers = new ArrayList<RESTHandler>();
+	private RESTRouter router = new RESTRouter();
+
+	public RESTCompositeHandler(String applicationPath, Collection<Class<?>> restClasses, RoleHandler roleHandler, Object...context) {
+		this.applicationPath = applicationPath == null ? "/" : applicationPath;
+		for (Class<?> restClass : restClasses) {
+			// the generated routes are looked up once per class loader rather than once per class
+			RESTHandler handler = new RESTHandler(this.applicationPath, restClass, RESTHandler.getRouteTables(restClass.getClassLoader()).get(restClass), roleHandler, Arrays.asList(context));
+			String classPath = getClassPath(handler);
+			for (RESTMethod method : handler.getMethods()) {
+				// the class path is prepended, unless the method is at the root of the class
+				String path = method.getMethodPath().equals("/") && !classPath.isEmpty() ? classPath : classPath + method.getMethodPath();
+				for (RESTVerb verb : RESTVerb.values()) {
+					if (method.isMethod(verb)) {
+						RESTMethod existing = router.add(verb, path, method);
+						if (existing != null) {
+							throw new IllegalArgumentException("The route " + verb + " " + path + " of " + method + " conflicts with " + existing);
+						}
+					}
+				}
+			}
+			handlers.add(handler);
+		}
+	}
+
+	private static String getClassPath(RESTHandler handler) {
+		String classPath = handler.getClassPath();
+		if (classPath == null) {
+			return "";
+		}
+		// the path values are mapped to the parameters of the method path
+		if (classPath.indexOf('{') >= 0) {
+			throw new IllegalArgumentException("Path parameters are not supported in the class path of: " + handler.getRestClass());
+		}
+		classPath = classPath.replaceAll("[/]+$", "");
+		return classPath.isEmpty() || classPath.startsWith("/") ? classPath : "/" + classPath;
+	}
+
+	@Override
+	public HTTPResponse handle(HTTPRequest request) {
+		// can not (currently) handle requests that have no content
+		if (request.getContent() == null) {
+			return null;
+		}
+		long started = System.nanoTime();
+		try {
+			URI uri = URIUtils.normalize(HTTPUtils.getURI(request, false));
+			if (!uri.getPath().startsWith(applicationPath)) {
+				return null;
+			}
+			String path = uri.getPath().substring(applicationPath.replaceAll("[/]+$", "").length());
+			if (path.isEmpty()) {
+				path = "/";
+			}
+			// e.g. "/apis" for application path "/api"
+			else if (!path.startsWith("/")) {
+				return null;
+			}
+			HTTPResponse response = RESTHandler.dispatch(router, request, uri, path, started);
+			// the root of a class can be requested with or without a trailing "/"
+			if (response == null && path.length() > 1 && path.endsWith("/")) {
+				response = RESTHandler.dispatch(router, request, uri, path.substring(0, path.length() - 1), started);
+			}
+			return response;
+		}
+		catch (FormatException e) {
+			throw new HTTPException(500, e);
+		}
+		catch (URISyntaxException e) {
+			throw new HTTPException(500, e);
+		}
+	}
+
+	/**
+	 * The handler of the given class, this allows for configuring it (lifecycle, compression,...)
+	 */
+	public RESTHandler getHandler(Class<?> restClass) {
+		for (RESTHandler handler : handlers) {
+			if (handler.getRestClass().equals(restClass)) {
+				return handler;
+			}
+		}
+		return null;
+	}
+
+	public List<RESTHandler> getHandlers() {
+		return Collections.unmodifiableList(handlers);
+	}
+
+	public String getApplicationPath() {
+		return applicationPath;
+	}
+
+	public RESTRouter getRouter() {
+		return router;
+	}
+}
@@ -0,0 +1,218 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Compresses responses with gzip or deflate depending on the Accept-Encoding of the request.
+ * The deflaters are reused per thread, allocating one means allocating native memory which is relatively expensive.
+ */
+public class RESTCompression {
+
+	public static final String GZIP = "gzip", DEFLATE = "deflate";
+
+	private static final byte [] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private boolean enabled;
+	// responses smaller than this are not worth compressing
+	private int minimumSize = 1024;
+	private int level = Deflater.DEFAULT_COMPRESSION;
+	private List<String> mediaTypes = new ArrayList<String>(Arrays.asList(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, MediaType.TEXT_PLAIN, MediaType.TEXT_XML, MediaType.TEXT_HTML, RESTCollectionWriter.APPLICATION_NDJSON));
+
+	private ThreadLocal<Deflater> gzipDeflaters = new ThreadLocal<Deflater>(), deflateDeflaters = new ThreadLocal<Deflater>();
+
+	/**
+	 * Returns the encoding that should be used or null if the response should not be compressed
+	 */
+	public String getEncoding(String acceptEncoding, String contentType, Long size) {
+		if (!enabled || acceptEncoding == null || contentType == null || (size != null && size < minimumSize)) {
+			return null;
+		}
+		String baseType = contentType.replaceAll(";.*$", "").trim().toLowerCase(Locale.ROOT);
+		if (!mediaTypes.contains(baseType)) {
+			return null;
+		}
+		// null if the coding is not listed explicitly
+		Double gzip = null, deflate = null, wildcard = null;
+		for (String part : acceptEncoding.split(",")) {
+			String [] parameters = part.split(";");
+			String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+			double value = 1;
+			for (int i = 1; i < parameters.length; i++) {
+				String parameter = parameters[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						value = Double.parseDouble(parameter.substring(2).trim());
+					}
+					catch (NumberFormatException e) {
+						value = 0;
+					}
+				}
+			}
+			if (name.equals(GZIP)) {
+				gzip = value;
+			}
+			else if (name.equals(DEFLATE)) {
+				deflate = value;
+			}
+			else if (name.equals("*")) {
+				wildcard = value;
+			}
+		}
+		// the wildcard only applies to the codings that are not listed, so "gzip;q=0, *" does not allow gzip
+		double gzipQuality = gzip != null ? gzip : (wildcard != null ? wildcard : 0);
+		double deflateQuality = deflate != null ? deflate : (wildcard != null ? wildcard : 0);
+		// prefer gzip if they are equal, it is more widely supported
+		if (gzipQuality > 0 && gzipQuality >= deflateQuality) {
+			return GZIP;
+		}
+		else if (deflateQuality > 0) {
+			return DEFLATE;
+		}
+		return null;
+	}
+
+	public byte [] compress(byte [] content, String encoding) {
+		Deflater deflater = getDeflater(encoding);
+		deflater.setInput(content);
+		deflater.finish();
+		ByteArrayOutputStream output = new ByteArrayOutputStream(content.length / 2 + 32);
+		if (GZIP.equals(encoding)) {
+			output.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+		}
+		byte [] buffer = new byte[8192];
+		while (!deflater.finished()) {
+			int length = deflater.deflate(buffer);
+			output.write(buffer, 0, length);
+		}
+		if (GZIP.equals(encoding)) {
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			writeTrailer(output, crc.getValue(), content.length);
+		}
+		// release the reference to the input
+		deflater.reset();
+		return output.toByteArray();
+	}
+
+	/**
+	 * Wraps the output in a compressing stream, closing the returned stream finishes the compression and closes the original output
+	 */
+	public OutputStream compress(OutputStream output, String encoding) throws IOException {
+		Deflater deflater = getDeflater(encoding);
+		return GZIP.equals(encoding) ? new GZIPStream(output, deflater) : new DeflaterOutputStream(output, deflater, 8192);
+	}
+
+	private Deflater getDeflater(String encoding) {
+		ThreadLocal<Deflater> deflaters = GZIP.equals(encoding) ? gzipDeflaters : deflateDeflaters;
+		Deflater deflater = deflaters.get();
+		if (deflater == null) {
+			// gzip adds its own header and trailer around raw deflate data
+			deflater = new Deflater(level, GZIP.equals(encoding));
+			deflaters.set(deflater);
+		}
+		// it may have been abandoned halfway by a failed stream
+		deflater.reset();
+		return deflater;
+	}
+
+	private static void writeTrailer(OutputStream output, long crc, long size) {
+		try {
+			byte [] trailer = new byte[8];
+			for (int i = 0; i < 4; i++) {
+				trailer[i] = (byte) (crc >> (i * 8));
+				trailer[i + 4] = (byte) (size >> (i * 8));
+			}
+			output.write(trailer);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class GZIPStream extends DeflaterOutputStream {
+		private CRC32 crc = new CRC32();
+		private long size;
+
+		GZIPStream(OutputStream output, Deflater deflater) throws IOException {
+			super(output, deflater, 8192);
+			output.write(GZIP_HEADER);
+		}
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			super.write(bytes, offset, length);
+			crc.update(bytes, offset, length);
+			size += length;
+		}
+		@Override
+		public void finish() throws IOException {
+			boolean finished = def.finished();
+			super.finish();
+			if (!finished) {
+				writeTrailer(out, crc.getValue(), size);
+			}
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMinimumSize() {
+		return minimumSize;
+	}
+
+	public void setMinimumSize(int minimumSize) {
+		this.minimumSize = minimumSize;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Must be set before the first response is compressed
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	public List<String> getMediaTypes() {
+		return mediaTypes;
+	}
+
+	public void setMediaTypes(List<String> mediaTypes) {
+		this.mediaTypes = mediaTypes;
+	}
+}
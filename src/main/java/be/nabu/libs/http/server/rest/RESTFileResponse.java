@@ -0,0 +1,241 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+
+import be.nabu.libs.http.HTTPException;
+import be.nabu.libs.http.api.HTTPRequest;
+import be.nabu.libs.http.api.HTTPResponse;
+import be.nabu.libs.http.core.DefaultHTTPResponse;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.MimeUtils;
+import be.nabu.utils.mime.impl.PlainMimeContentPart;
+import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
+
+/**
+ * Serves a file with support for conditional (If-Modified-Since) and partial (Range, If-Range) requests.
+ * The content is streamed with positional reads on the channel so the file is never loaded in memory as a whole.
+ * Note that this is not zero-copy: the server only accepts a container that fills heap buffers, so every chunk is copied from the channel into the buffers of the server.
+ */
+class RESTFileResponse {
+
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+	/**
+	 * The content type is guessed from the file name if none is given
+	 */
+	static HTTPResponse newResponse(HTTPRequest request, String contentType, Path path) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+		}
+		catch (NoSuchFileException e) {
+			throw new HTTPException(404, "File not found", e);
+		}
+		// http dates have a resolution of seconds
+		long lastModified = path.toFile().lastModified() / 1000 * 1000;
+		if (contentType == null && path.getFileName() != null) {
+			contentType = URLConnection.guessContentTypeFromName(path.getFileName().toString());
+		}
+		return newResponse(request, contentType, channel, lastModified);
+	}
+
+	/**
+	 * The channel is closed once the content is sent, a last modified of 0 means it is not known
+	 */
+	static HTTPResponse newResponse(HTTPRequest request, String contentType, FileChannel channel, long lastModified) throws IOException {
+		boolean close = true;
+		try {
+			if (contentType == null) {
+				contentType = MediaType.APPLICATION_OCTET_STREAM;
+			}
+			long size = channel.size();
+			String modified = lastModified > 0 ? HTTP_DATE.format(Instant.ofEpochMilli(lastModified)) : null;
+			List<Header> headers = new ArrayList<Header>();
+			headers.add(new MimeHeader("Accept-Ranges", "bytes"));
+			if (modified != null) {
+				headers.add(new MimeHeader("Last-Modified", modified));
+				Long since = parseDate(getHeader(request, "If-Modified-Since"));
+				if (since != null && lastModified <= since) {
+					return new DefaultHTTPResponse(request, 304, "Not Modified", new PlainMimeEmptyPart(null, headers.toArray(new Header[headers.size()])));
+				}
+			}
+			long [] range = null;
+			String rangeHeader = getHeader(request, "Range");
+			// if the file changed since the client got its part, it gets the whole file instead
+			String ifRange = getHeader(request, "If-Range");
+			if (rangeHeader != null && (ifRange == null || ifRange.equals(modified))) {
+				range = parseRange(rangeHeader, size);
+				if (range != null && range.length == 0) {
+					headers.add(new MimeHeader("Content-Range", "bytes */" + size));
+					headers.add(new MimeHeader("Content-Length", "0"));
+					return new DefaultHTTPResponse(request, 416, "Range Not Satisfiable", new PlainMimeEmptyPart(null, headers.toArray(new Header[headers.size()])));
+				}
+			}
+			long start = range == null ? 0 : range[0];
+			long length = range == null ? size : range[1] - range[0] + 1;
+			headers.add(new MimeHeader("Content-Type", contentType));
+			headers.add(new MimeHeader("Content-Length", Long.toString(length)));
+			if (range != null) {
+				headers.add(new MimeHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size));
+			}
+			HTTPResponse response = new DefaultHTTPResponse(request, range == null ? 200 : 206, range == null ? "OK" : "Partial Content", 
+				new PlainMimeContentPart(null, IOUtils.wrap(new ChannelInputStream(channel, start, length)), headers.toArray(new Header[headers.size()])));
+			close = false;
+			return response;
+		}
+		finally {
+			if (close) {
+				channel.close();
+			}
+		}
+	}
+
+	private static String getHeader(HTTPRequest request, String name) {
+		Header header = MimeUtils.getHeader(name, request.getContent().getHeaders());
+		return header == null ? null : RESTNegotiator.getFullValue(header).trim();
+	}
+
+	private static Long parseDate(String value) {
+		if (value == null) {
+			return null;
+		}
+		try {
+			return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		}
+		// other formats are allowed but not worth supporting, the full response is always correct
+		catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the first and last byte of a single range, an empty array if it can not be satisfied or null if the full content should be sent.
+	 * Multiple ranges are not supported, the spec allows for sending the full content instead.
+	 */
+	static long [] parseRange(String value, long size) {
+		if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+			return null;
+		}
+		String range = value.substring("bytes=".length()).trim();
+		int separator = range.indexOf('-');
+		if (separator < 0) {
+			return null;
+		}
+		try {
+			String first = range.substring(0, separator).trim();
+			String last = range.substring(separator + 1).trim();
+			long start, end;
+			// the last n bytes
+			if (first.isEmpty()) {
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0) {
+					return new long[0];
+				}
+				start = Math.max(0, size - suffix);
+				end = size - 1;
+			}
+			else {
+				start = Long.parseLong(first);
+				end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+				// an invalid range is ignored
+				if (end < start) {
+					return null;
+				}
+				end = Math.min(end, size - 1);
+			}
+			if (start >= size) {
+				return new long[0];
+			}
+			return new long[] { start, end };
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a section of the channel with positional reads, closing it closes the channel
+	 */
+	private static class ChannelInputStream extends InputStream {
+		private FileChannel channel;
+		private long position, end;
+
+		ChannelInputStream(FileChannel channel, long position, long length) {
+			this.channel = channel;
+			this.position = position;
+			this.end = position + length;
+		}
+		@Override
+		public int read() throws IOException {
+			byte [] single = new byte[1];
+			int read = read(single, 0, 1);
+			return read < 0 ? -1 : single[0] & 0xff;
+		}
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			else if (position >= end) {
+				return -1;
+			}
+			int read = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, end - position)), position);
+			// the file was truncated while we were reading it
+			if (read < 0) {
+				throw new IOException("The file ended before the announced content length was sent");
+			}
+			position += read;
+			return read;
+		}
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(Integer.MAX_VALUE, end - position);
+		}
+		@Override
+		public long skip(long amount) throws IOException {
+			long skipped = Math.max(0, Math.min(amount, end - position));
+			position += skipped;
+			return skipped;
+		}
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.impl.MimeUtils;
+
+/**
+ * A single part of a multipart/form-data request.
+ * A part that is read as it arrives can only be read once, a buffered part is kept in memory or (if it is large) in a temporary file that is removed once the request is done.
+ */
+public class RESTFormPart {
+
+	private Header [] headers;
+	private String name, fileName;
+	// only one of these is set
+	private InputStream stream;
+	private byte [] content;
+	private File file;
+	private long size = -1;
+	
+	RESTFormPart(Header [] headers, InputStream stream) {
+		this.headers = headers;
+		this.stream = stream;
+		Header disposition = MimeUtils.getHeader("Content-Disposition", headers);
+		if (disposition != null) {
+			this.name = getParameter(RESTNegotiator.getFullValue(disposition), "name");
+			this.fileName = getParameter(RESTNegotiator.getFullValue(disposition), "filename");
+		}
+	}
+	
+	void setContent(byte [] content) {
+		this.content = content;
+		this.size = content.length;
+		this.stream = null;
+	}
+	
+	void setFile(File file) {
+		this.file = file;
+		this.size = file.length();
+		this.stream = null;
+		this.content = null;
+	}
+	
+	private static String getParameter(String value, String name) {
+		for (String parameter : value.split(";")) {
+			String [] parts = parameter.split("=", 2);
+			if (parts.length == 2 && parts[0].trim().equalsIgnoreCase(name)) {
+				String result = parts[1].trim();
+				if (result.length() >= 2 && result.startsWith("\"") && result.endsWith("\"")) {
+					result = result.substring(1, result.length() - 1).replace("\\\"", "\"");
+				}
+				return result;
+			}
+		}
+		return null;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public String getFileName() {
+		return fileName;
+	}
+	
+	public Header[] getHeaders() {
+		return headers;
+	}
+	
+	public String getContentType() {
+		return RESTNegotiator.getBaseType(MimeUtils.getContentType(headers));
+	}
+	
+	/**
+	 * The size in bytes, -1 if the part has not been buffered
+	 */
+	public long getSize() {
+		return size;
+	}
+	
+	/**
+	 * The temporary file that holds the content, null if the content is in memory or has not been buffered
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	public InputStream getInputStream() throws IOException {
+		if (content != null) {
+			return new ByteArrayInputStream(content);
+		}
+		else if (file != null) {
+			return new FileInputStream(file);
+		}
+		return stream;
+	}
+	
+	public byte [] getBytes() throws IOException {
+		if (content != null) {
+			return content;
+		}
+		else if (file != null) {
+			return Files.readAllBytes(file.toPath());
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte [] buffer = new byte[8192];
+		int read;
+		while ((read = stream.read(buffer)) > 0) {
+			output.write(buffer, 0, read);
+		}
+		setContent(output.toByteArray());
+		return content;
+	}
+	
+	/**
+	 * The content as text in the charset of the part (utf-8 if none is given)
+	 */
+	public String getString() throws IOException {
+		Header contentType = MimeUtils.getHeader("Content-Type", headers);
+		Charset charset = contentType == null ? null : RESTNegotiator.getCharset(RESTNegotiator.getFullValue(contentType));
+		return new String(getBytes(), charset == null ? RESTBindings.UTF8 : charset);
+	}
+}
@@ -17,59 +17,138 @@
 
 package be.nabu.libs.http.server.rest;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
-import java.security.Principal;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.ws.rs.DELETE;
-import javax.ws.rs.GET;
-import javax.ws.rs.HEAD;
-import javax.ws.rs.OPTIONS;
-import javax.ws.rs.POST;
-import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
-import javax.ws.rs.core.Context;
-import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.MediaType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import be.nabu.libs.authentication.api.RoleHandler;
 import be.nabu.libs.events.api.EventHandler;
 import be.nabu.libs.http.HTTPException;
 import be.nabu.libs.http.api.HTTPRequest;
 import be.nabu.libs.http.api.HTTPResponse;
-import be.nabu.libs.http.api.server.AuthenticationHeader;
-import be.nabu.libs.http.api.server.SecurityHeader;
+import be.nabu.libs.http.core.DefaultHTTPResponse;
 import be.nabu.libs.http.core.HTTPUtils;
-import be.nabu.libs.http.core.ServerHeader;
 import be.nabu.libs.resources.URIUtils;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.mime.api.ContentPart;
 import be.nabu.utils.mime.api.Header;
 import be.nabu.utils.mime.impl.FormatException;
+import be.nabu.utils.mime.impl.MimeHeader;
 import be.nabu.utils.mime.impl.MimeUtils;
+import be.nabu.utils.mime.impl.PlainMimeContentPart;
+import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
 
 public class RESTHandler implements EventHandler<HTTPRequest, HTTPResponse> {
 
 	private Class<?> restClass;
 	private String applicationPath, classPath;
 	private List<Object> context;
-	private List<Field> contextFields;
 	private RoleHandler roleHandler;
+	private RESTInstanceFactory instanceFactory;
 	private Map<String, RESTMethod> methods = new HashMap<String, RESTMethod>();
+	private RESTRouter router = new RESTRouter();
+	// only the methods that are actually exposed
+	private Map<String, RESTMetrics> metrics = new HashMap<String, RESTMetrics>();
+	private boolean metricsEnabled = true;
 	// for backwards compatibility
 	private String defaultResponseType;
+	// whether complex responses are marshalled directly into the response instead of being buffered first
+	private boolean streamingResponses;
+	private int streamingBufferSize = 64 * 1024;
+	private long streamingTimeout = 5 * 60 * 1000;
+	private Executor streamingExecutor;
+	
+	// the executor on which asynchronous results are marshalled, e.g. a virtual thread executor on newer jdks
+	private Executor asyncExecutor;
+	private long asyncTimeout = 30 * 1000;
+	
+	private RESTCompression compression = new RESTCompression();
+	
+	// multipart parts larger than this are written to a temporary file
+	private int multipartThreshold = 64 * 1024;
+	// where the temporary files are created, the default temporary directory if null
+	private File multipartDirectory;
+	// a request with more parts or more content is rejected when the parts are buffered
+	private int multipartMaxParts = 1000;
+	private long multipartMaxSize = 100 * 1024 * 1024;
+	
+	// the query parameter that selects the fields of the response, null to disable field selection
+	private String fieldsParameter = "fields";
+	
+	// the codecs per media type, the order determines the preference for methods that don't declare what they produce or consume
+	private volatile Map<String, RESTCodec> codecs = new LinkedHashMap<String, RESTCodec>();
+	private volatile RESTNegotiator codecTypes;
+	
+	// every streamed response occupies a thread until the client has read it, so this caps the amount of concurrent streamed responses
+	private static final int DEFAULT_STREAMING_THREADS = 256;
+	
+	// the generated route tables per class loader
+	private static final Map<ClassLoader, SoftReference<Map<Class<?>, RESTRouteTable>>> routeTables = new WeakHashMap<ClassLoader, SoftReference<Map<Class<?>, RESTRouteTable>>>();
+	private static Executor defaultStreamingExecutor;
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
 
 	public RESTHandler(String applicationPath, Class<?> restClass, RoleHandler roleHandler, Object...context) {
+		this(applicationPath, restClass, getRouteTable(restClass), roleHandler, Arrays.asList(context));
+	}
+	
+	/**
+	 * If a generated route table is given, the class is not analyzed through reflection
+	 */
+	RESTHandler(String applicationPath, Class<?> restClass, RESTRouteTable routeTable, RoleHandler roleHandler, List<Object> context) {
 		this.roleHandler = roleHandler;
 		this.applicationPath = applicationPath == null ? "/" : applicationPath;
 		this.restClass = restClass;
-		analyze(restClass);
-		this.context = Arrays.asList(context);
+		setCodec(MediaType.APPLICATION_XML, RESTBindings.XML);
+		setCodec(MediaType.APPLICATION_JSON, RESTBindings.JSON);
+		setCodec(CBORBinding.APPLICATION_CBOR, RESTBindings.CBOR);
+		if (routeTable == null) {
+			analyze(restClass);
+		}
+		else {
+			analyze(restClass, routeTable);
+		}
+		this.context = context;
+		try {
+			this.instanceFactory = new RESTInstanceFactory(restClass, this.context);
+		}
+		catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Can not access the context fields of: " + restClass, e);
+		}
 	}
 
 	private void analyze(Class<?> clazz) {
@@ -79,63 +158,93 @@ public class RESTHandler implements EventHandler<HTTPRequest, HTTPResponse> {
 		for (Method method : clazz.getDeclaredMethods()) {
 			methods.put(method.getName(), new RESTMethod(this, method));
 		}
-		contextFields = new ArrayList<Field>();
-		for (Field field : clazz.getDeclaredFields()) {
-			if (field.getAnnotation(Context.class) != null) {
-				if (!field.isAccessible()) {
-					field.setAccessible(true);
-				}
-				contextFields.add(field);
+		route();
+	}
+	
+	private void analyze(Class<?> clazz, RESTRouteTable routeTable) {
+		logger.debug("Using the generated routes for {}", clazz);
+		if (clazz.getAnnotation(Path.class) != null) {
+			classPath = clazz.getAnnotation(Path.class).value();
+		}
+		for (RESTRoute route : routeTable.getRoutes()) {
+			try {
+				// a direct lookup instead of analyzing all the methods of the class
+				Method method = clazz.getDeclaredMethod(route.getName(), route.getParameterTypes());
+				methods.put(method.getName(), new RESTMethod(this, method, route));
+			}
+			catch (NoSuchMethodException e) {
+				throw new IllegalArgumentException("The generated routes for " + clazz + " are out of date, recompile the class", e);
 			}
 		}
+		route();
 	}
-
-	Object newInstance(final HTTPRequest request) throws IllegalArgumentException, IllegalAccessException, InstantiationException {
-		Object instance = restClass.newInstance();
-		for (Field field : contextFields) {
-			if (HTTPRequest.class.equals(field.getType())) {
-				field.set(instance, request);
-			}
-			else if (SecurityContext.class.equals(field.getType())) {
-				field.set(instance, new SecurityContext() {
-					@Override
-					public String getAuthenticationScheme() {
-						if (request.getContent() == null) {
-							return null;
-						}
-						Header header = MimeUtils.getHeader(ServerHeader.NAME_AUTHENTICATION_SCHEME, request.getContent().getHeaders());
-						return header == null ? null : header.getValue();
-					}
-					@Override
-					public Principal getUserPrincipal() {
-						AuthenticationHeader authenticationHeader = HTTPUtils.getAuthenticationHeader(request);
-						return authenticationHeader == null ? null : authenticationHeader.getToken();
-					}
-					@Override
-					public boolean isSecure() {
-						SecurityHeader securityHeader = HTTPUtils.getSecurityHeader(request);
-						return securityHeader != null && securityHeader.getSecurityContext() != null;
-					}
-					@Override
-					public boolean isUserInRole(String role) {
-						if (roleHandler == null) {
-							return false;
-						}
-						AuthenticationHeader authenticationHeader = HTTPUtils.getAuthenticationHeader(request);
-						return authenticationHeader != null && roleHandler.hasRole(authenticationHeader.getToken(), role);
+	
+	private void route() {
+		for (RESTMethod method : methods.values()) {
+			for (RESTVerb verb : RESTVerb.values()) {
+				if (method.isMethod(verb)) {
+					RESTMethod existing = router.add(verb, method.getMethodPath(), method);
+					if (existing != null) {
+						logger.warn("The route " + verb + " " + method.getMethodPath() + " of " + method + " conflicts with " + existing + ", it is ignored");
 					}
-				});
+					metrics.put(method.getMethod().getName(), method.getMetrics());
+				}
 			}
-			else {
-				for (Object object : context) {
-					if (object != null && field.getType().isAssignableFrom(object.getClass())) {
-						field.set(instance, object);
-						break;
+		}
+	}
+
+	/**
+	 * The generated route table for the class, null if there is none
+	 */
+	private static RESTRouteTable getRouteTable(Class<?> restClass) {
+		return getRouteTables(restClass.getClassLoader()).get(restClass);
+	}
+	
+	/**
+	 * All the generated route tables available to the class loader, per rest class
+	 * They are loaded once per class loader, the reference is soft so the class loader can still be unloaded
+	 */
+	static Map<Class<?>, RESTRouteTable> getRouteTables(ClassLoader classLoader) {
+		synchronized(routeTables) {
+			SoftReference<Map<Class<?>, RESTRouteTable>> reference = routeTables.get(classLoader);
+			Map<Class<?>, RESTRouteTable> tables = reference == null ? null : reference.get();
+			if (tables == null) {
+				tables = new HashMap<Class<?>, RESTRouteTable>();
+				try {
+					for (RESTRouteTable routeTable : ServiceLoader.load(RESTRouteTable.class, classLoader)) {
+						tables.put(routeTable.getRestClass(), routeTable);
 					}
 				}
+				// we can always fall back to reflection
+				catch (ServiceConfigurationError e) {
+					LoggerFactory.getLogger(RESTHandler.class).warn("Could not load the generated routes", e);
+				}
+				tables = Collections.unmodifiableMap(tables);
+				routeTables.put(classLoader, new SoftReference<Map<Class<?>, RESTRouteTable>>(tables));
 			}
+			return tables;
 		}
-		return instance;
+	}
+	
+	Object acquire(HTTPRequest request, RESTSecurityContext securityContext) throws IllegalAccessException, InstantiationException {
+		return instanceFactory.acquire(request, securityContext);
+	}
+	
+	void release(Object instance) throws IllegalAccessException {
+		instanceFactory.release(instance);
+	}
+	
+	// work that is handed off to another thread takes the request scope of the current thread along
+	Executor bind(Executor executor) {
+		return instanceFactory.bind(executor);
+	}
+	
+	Collection<RESTMethod> getMethods() {
+		return methods.values();
+	}
+	
+	public RoleHandler getRoleHandler() {
+		return roleHandler;
 	}
 	
 	public Class<?> getRestClass() {
@@ -156,6 +265,7 @@ public class RESTHandler implements EventHandler<HTTPRequest, HTTPResponse> {
 		if (request.getContent() == null) {
 			return null;
 		}
+		long started = System.nanoTime();
 		try {
 			URI uri = URIUtils.normalize(HTTPUtils.getURI(request, false));
 			if (uri.getPath().startsWith(getApplicationPath())) {
@@ -172,50 +282,7 @@ public class RESTHandler implements EventHandler<HTTPRequest, HTTPResponse> {
 					if (path.isEmpty()) {
 						path = "/";
 					}
-					Class<? extends Annotation> annotation = null;
-					if (request.getMethod().equalsIgnoreCase("GET")) {
-						annotation = GET.class;
-					}
-					else if (request.getMethod().equalsIgnoreCase("POST")) {
-						annotation = POST.class;
-					}
-					else if (request.getMethod().equalsIgnoreCase("PUT")) {
-						annotation = PUT.class;
-					}
-					else if (request.getMethod().equalsIgnoreCase("DELETE")) {
-						annotation = DELETE.class;
-					}
-					else if (request.getMethod().equalsIgnoreCase("HEAD")) {
-						annotation = HEAD.class;
-					}
-					else if (request.getMethod().equalsIgnoreCase("OPTIONS")) {
-						annotation = OPTIONS.class;
-					}
-					else {
-						throw new HTTPException(500, "The method " + request.getMethod() + " is currently unsupported");
-					}
-					for (RESTMethod method : methods.values()) {
-						if (method.isMethod(path, annotation)) {
-							try {
-								return method.execute(new URI(uri.getScheme(), uri.getAuthority(), path, uri.getQuery(), uri.getFragment()), request);
-							}
-							catch (HTTPException e) {
-								throw e;
-							}
-							catch (Exception e) {
-								Exception unwind = e;
-								while (unwind instanceof InvocationTargetException && unwind.getCause() instanceof Exception) {
-									if (unwind.getCause() instanceof HTTPException) {
-										throw (HTTPException) unwind.getCause();
-									}
-									else {
-										unwind = (Exception) unwind.getCause();
-									}
-								}
-								throw new HTTPException(500, unwind);
-							}
-						}
-					}
+					return dispatch(router, request, uri, path, started);
 				}
 			}
 			return null;
@@ -223,6 +290,417 @@ public class RESTHandler implements EventHandler<HTTPRequest, HTTPResponse> {
 		catch (FormatException e) {
 			throw new HTTPException(500, e);
 		}
+		catch (URISyntaxException e) {
+			throw new HTTPException(500, e);
+		}
+	}
+	
+	/**
+	 * Routes the path (relative to the class path or the application path for a composite) to the method that handles it.
+	 * Returns null if the path is not known to the router.
+	 */
+	static HTTPResponse dispatch(RESTRouter router, HTTPRequest request, URI uri, String path, long started) throws URISyntaxException {
+		RESTVerb verb = RESTVerb.parse(request.getMethod());
+		RESTRouter.Match match = verb == null ? null : router.route(verb, path);
+		// a HEAD is a GET without the body
+		boolean head = false;
+		if (match == null && verb == RESTVerb.HEAD) {
+			match = router.route(RESTVerb.GET, path);
+			head = match != null;
+		}
+		if (match != null) {
+			HTTPResponse response = match.getMethod().getHandler().execute(match.getMethod(), match.getPathValues(), new URI(uri.getScheme(), uri.getAuthority(), path, uri.getQuery(), uri.getFragment()), request, started);
+			return head ? withoutContent(request, response) : response;
+		}
+		EnumSet<RESTVerb> allowed = router.getAllowed(path);
+		// the path is not ours
+		if (allowed.isEmpty()) {
+			return null;
+		}
+		else if (verb == RESTVerb.OPTIONS) {
+			return new DefaultHTTPResponse(request, 200, "OK", new PlainMimeEmptyPart(null,
+				new MimeHeader("Allow", RESTVerb.toAllow(allowed)),
+				new MimeHeader("Content-Length", "0")
+			));
+		}
+		else {
+			return new DefaultHTTPResponse(request, 405, "Method Not Allowed", new PlainMimeEmptyPart(null,
+				new MimeHeader("Allow", RESTVerb.toAllow(allowed)),
+				new MimeHeader("Content-Length", "0")
+			));
+		}
+	}
+	
+	/**
+	 * Keeps the status and headers of the response but discards the content
+	 */
+	private static HTTPResponse withoutContent(HTTPRequest request, HTTPResponse response) {
+		if (response == null || response.getContent() == null) {
+			return response;
+		}
+		if (response.getContent() instanceof ContentPart) {
+			try {
+				ReadableContainer<ByteBuffer> readable = ((ContentPart) response.getContent()).getReadable();
+				// this also stops a streaming response from being generated
+				if (readable != null) {
+					readable.close();
+				}
+			}
+			catch (IOException e) {
+				// ignore
+			}
+		}
+		return new DefaultHTTPResponse(request, response.getCode(), response.getMessage(), new PlainMimeEmptyPart(null, response.getContent().getHeaders()));
+	}
+	
+	HTTPResponse execute(RESTMethod method, String [] pathValues, URI uri, HTTPRequest request, long started) {
+		RESTMetrics metrics = metricsEnabled ? method.getMetrics() : null;
+		if (metrics != null) {
+			metrics.record(RESTMetrics.Phase.ROUTING, System.nanoTime() - started);
+			metrics.start();
+			Long contentLength = RESTMetrics.getContentLength(request.getContent());
+			if (contentLength != null) {
+				metrics.requestBytes(contentLength);
+			}
+		}
+		try {
+			HTTPResponse response = method.execute(uri, request, pathValues);
+			if (metrics != null && response != null) {
+				if (response.getCode() >= 400) {
+					metrics.error(response.getCode());
+				}
+				Long contentLength = RESTMetrics.getContentLength(response.getContent());
+				if (contentLength != null) {
+					metrics.responseBytes(contentLength);
+				}
+			}
+			return response;
+		}
+		catch (Exception e) {
+			HTTPException exception = unwind(e);
+			if (metrics != null) {
+				metrics.error(exception.getCode());
+			}
+			throw exception;
+		}
+		finally {
+			if (metrics != null) {
+				metrics.stop(started);
+			}
+		}
+	}
+	
+	private static HTTPException unwind(Exception e) {
+		if (e instanceof HTTPException) {
+			return (HTTPException) e;
+		}
+		Exception unwind = e;
+		while (unwind instanceof InvocationTargetException && unwind.getCause() instanceof Exception) {
+			if (unwind.getCause() instanceof HTTPException) {
+				return (HTTPException) unwind.getCause();
+			}
+			else {
+				unwind = (Exception) unwind.getCause();
+			}
+		}
+		return new HTTPException(500, unwind);
+	}
+	
+	/**
+	 * The metrics per method name
+	 */
+	public Map<String, RESTMetrics> getMetrics() {
+		return new TreeMap<String, RESTMetrics>(metrics);
+	}
+	
+	public Map<String, RESTMetrics.Snapshot> snapshotMetrics() {
+		Map<String, RESTMetrics.Snapshot> snapshots = new TreeMap<String, RESTMetrics.Snapshot>();
+		for (Map.Entry<String, RESTMetrics> entry : metrics.entrySet()) {
+			snapshots.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return snapshots;
+	}
+	
+	/**
+	 * The response cache of the given method, null if it is not cached
+	 */
+	public RESTResponseCache getCache(String methodName) {
+		RESTMethod method = methods.get(methodName);
+		return method == null ? null : method.getCache();
+	}
+	
+	/**
+	 * The concurrency limiter of the given method, null if it is not limited
+	 */
+	public RESTLimiter getLimiter(String methodName) {
+		RESTMethod method = methods.get(methodName);
+		return method == null ? null : method.getLimiter();
+	}
+	
+	/**
+	 * Limits (or with null no longer limits) the concurrent calls to the given method
+	 */
+	public void setLimiter(String methodName, RESTLimiter limiter) {
+		RESTMethod method = methods.get(methodName);
+		if (method == null) {
+			throw new IllegalArgumentException("Unknown method: " + methodName);
+		}
+		method.setLimiter(limiter);
+	}
+	
+	public boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+
+	public void setMetricsEnabled(boolean metricsEnabled) {
+		this.metricsEnabled = metricsEnabled;
+	}
+
+	public RESTLifecycle getLifecycle() {
+		return instanceFactory.getLifecycle();
+	}
+
+	public void setLifecycle(RESTLifecycle lifecycle) {
+		instanceFactory.setLifecycle(lifecycle);
+	}
+
+	public int getPoolSize() {
+		return instanceFactory.getPoolSize();
+	}
+
+	public void setPoolSize(int poolSize) {
+		instanceFactory.setPoolSize(poolSize);
+	}
+
+	public RESTRouter getRouter() {
+		return router;
+	}
+
+	/**
+	 * The content is written by the given writer on the streaming executor into a bounded pipe and sent with chunked transfer encoding.
+	 * The memory used per response is limited to the streaming buffer size regardless of the size of the content.
+	 */
+	HTTPResponse newStreamingResponse(final HTTPRequest request, String contentType, final RESTStreamWriter writer) {
+		final RESTPipe pipe = new RESTPipe(streamingBufferSize, streamingTimeout);
+		// the size is not known up front so only the content type is taken into account
+		final String encoding = compression.getEncoding(getAcceptEncoding(request), contentType, null);
+		try {
+			execute(writer, pipe, encoding, request);
+		}
+		catch (RejectedExecutionException e) {
+			// nothing has been sent yet so we can still tell the client to come back later
+			logger.warn("The streaming executor is saturated, rejecting " + request.getTarget());
+			if (writer instanceof AutoCloseable) {
+				try {
+					((AutoCloseable) writer).close();
+				}
+				catch (Exception e1) {
+					// ignore
+				}
+			}
+			throw new HTTPException(503, "Too many streamed responses", e);
+		}
+		List<Header> headers = new ArrayList<Header>();
+		headers.add(new MimeHeader("Content-Type", contentType));
+		headers.add(new MimeHeader("Transfer-Encoding", "chunked"));
+		addEncodingHeaders(headers, encoding);
+		return new DefaultHTTPResponse(request, 200, "OK", new PlainMimeContentPart(null, IOUtils.wrap(pipe.getInputStream()), headers.toArray(new Header[headers.size()])));
+	}
+	
+	private void execute(final RESTStreamWriter writer, final RESTPipe pipe, final String encoding, final HTTPRequest request) {
+		bind(getStreamingExecutor()).execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					// the deflater is bound to the thread, so the compressing stream has to be created on the writing thread
+					OutputStream output = encoding == null ? pipe.getOutputStream() : compression.compress(pipe.getOutputStream(), encoding);
+					try {
+						writer.write(output);
+					}
+					finally {
+						output.close();
+					}
+				}
+				catch (Throwable e) {
+					// the headers are already sent, the best we can do is abort the response
+					logger.error("Could not stream the response for " + request.getTarget(), e);
+					pipe.fail(e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * A buffered response, it is compressed if the client allows it and the content is eligible
+	 */
+	HTTPResponse newResponse(HTTPRequest request, String contentType, byte [] content) {
+		if (!compression.isEnabled()) {
+			return HTTPUtils.newResponse(request, contentType, IOUtils.wrap(content, true));
+		}
+		String encoding = compression.getEncoding(getAcceptEncoding(request), contentType, (long) content.length);
+		return newEncodedResponse(request, contentType, encoding == null ? content : compression.compress(content, encoding), encoding);
+	}
+	
+	/**
+	 * A buffered response where the content is already encoded with the given encoding (if any)
+	 */
+	HTTPResponse newEncodedResponse(HTTPRequest request, String contentType, byte [] content, String encoding, Header...additionalHeaders) {
+		List<Header> headers = new ArrayList<Header>();
+		headers.add(new MimeHeader("Content-Type", contentType));
+		headers.add(new MimeHeader("Content-Length", Integer.toString(content.length)));
+		addEncodingHeaders(headers, encoding);
+		headers.addAll(Arrays.asList(additionalHeaders));
+		return new DefaultHTTPResponse(request, 200, "OK", new PlainMimeContentPart(null, IOUtils.wrap(content, true), headers.toArray(new Header[headers.size()])));
+	}
+	
+	static String getAcceptEncoding(HTTPRequest request) {
+		Header header = MimeUtils.getHeader("Accept-Encoding", request.getContent().getHeaders());
+		return RESTNegotiator.getFullValue(header);
+	}
+	
+	private void addEncodingHeaders(List<Header> headers, String encoding) {
+		if (encoding != null) {
+			headers.add(new MimeHeader("Content-Encoding", encoding));
+		}
+		// caches must not serve a compressed response to a client that doesn't support it
+		if (compression.isEnabled()) {
+			headers.add(new MimeHeader("Vary", "Accept-Encoding"));
+		}
+	}
+	
+	/**
+	 * Registers (or replaces) the codec for a media type, passing in null removes it
+	 */
+	public synchronized void setCodec(String mediaType, RESTCodec codec) {
+		Map<String, RESTCodec> codecs = new LinkedHashMap<String, RESTCodec>(this.codecs);
+		if (codec == null) {
+			codecs.remove(RESTNegotiator.getBaseType(mediaType));
+		}
+		else {
+			codecs.put(RESTNegotiator.getBaseType(mediaType), codec);
+		}
+		this.codecTypes = new RESTNegotiator(codecs.keySet().toArray(new String[codecs.size()]));
+		this.codecs = codecs;
+	}
+	
+	public RESTCodec getCodec(String mediaType) {
+		return codecs.get(mediaType);
+	}
+	
+	public Map<String, RESTCodec> getCodecs() {
+		return Collections.unmodifiableMap(codecs);
+	}
+	
+	// the media types that have a codec
+	RESTNegotiator getCodecTypes() {
+		return codecTypes;
+	}
+	
+	public RESTCompression getCompression() {
+		return compression;
+	}
+
+	public void setCompression(RESTCompression compression) {
+		this.compression = compression == null ? new RESTCompression() : compression;
+	}
+
+	public boolean isStreamingResponses() {
+		return streamingResponses;
+	}
+
+	public void setStreamingResponses(boolean streamingResponses) {
+		this.streamingResponses = streamingResponses;
+	}
+
+	public int getStreamingBufferSize() {
+		return streamingBufferSize;
+	}
+
+	public void setStreamingBufferSize(int streamingBufferSize) {
+		this.streamingBufferSize = streamingBufferSize;
+	}
+
+	public long getStreamingTimeout() {
+		return streamingTimeout;
+	}
+
+	public void setStreamingTimeout(long streamingTimeout) {
+		this.streamingTimeout = streamingTimeout;
+	}
+
+	public Executor getStreamingExecutor() {
+		if (streamingExecutor == null) {
+			synchronized(RESTHandler.class) {
+				if (defaultStreamingExecutor == null) {
+					// threads are created on demand and removed when idle, a response that finds them all busy is rejected with a 503 rather than queued
+					ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_STREAMING_THREADS, DEFAULT_STREAMING_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+						private AtomicInteger counter = new AtomicInteger();
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "rest-stream-" + counter.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+					executor.allowCoreThreadTimeOut(true);
+					defaultStreamingExecutor = executor;
+				}
+				return defaultStreamingExecutor;
+			}
+		}
+		return streamingExecutor;
+	}
+
+	public void setStreamingExecutor(Executor streamingExecutor) {
+		this.streamingExecutor = streamingExecutor;
+	}
+
+	public Executor getAsyncExecutor() {
+		return asyncExecutor == null ? ForkJoinPool.commonPool() : asyncExecutor;
+	}
+
+	public void setAsyncExecutor(Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+	}
+
+	public long getAsyncTimeout() {
+		return asyncTimeout;
+	}
+
+	public void setAsyncTimeout(long asyncTimeout) {
+		this.asyncTimeout = asyncTimeout;
+	}
+
+	public int getMultipartThreshold() {
+		return multipartThreshold;
+	}
+
+	public void setMultipartThreshold(int multipartThreshold) {
+		this.multipartThreshold = multipartThreshold;
+	}
+
+	public File getMultipartDirectory() {
+		return multipartDirectory;
+	}
+
+	public void setMultipartDirectory(File multipartDirectory) {
+		this.multipartDirectory = multipartDirectory;
+	}
+
+	public int getMultipartMaxParts() {
+		return multipartMaxParts;
+	}
+
+	public void setMultipartMaxParts(int multipartMaxParts) {
+		this.multipartMaxParts = multipartMaxParts;
+	}
+
+	public long getMultipartMaxSize() {
+		return multipartMaxSize;
+	}
+
+	public void setMultipartMaxSize(long multipartMaxSize) {
+		this.multipartMaxSize = multipartMaxSize;
 	}
 
 	public String getDefaultResponseType() {
@@ -232,4 +710,12 @@ public class RESTHandler implements EventHandler<HTTPRequest, HTTPResponse> {
 	public void setDefaultResponseType(String defaultResponseType) {
 		this.defaultResponseType = defaultResponseType;
 	}
+
+	public String getFieldsParameter() {
+		return fieldsParameter;
+	}
+
+	public void setFieldsParameter(String fieldsParameter) {
+		this.fieldsParameter = fieldsParameter;
+	}
 }
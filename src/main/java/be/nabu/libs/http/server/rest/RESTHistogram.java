@@ -0,0 +1,140 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+package be.nabu.libs.http.server.rest;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free log-linear histogram in the spirit of HDR histograms: every power of two is split into 8 linear sub-buckets.
+ * This keeps the relative error of the percentiles under 12.5% across the entire range of long values with a fixed size of 488 buckets.
+ * Every bucket is a separate adder so concurrent requests that land in the same bucket don't contend on a single cache line.
+ */
+public class RESTHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	
+	private LongAdder [] counts = new LongAdder[BUCKETS];
+	private LongAdder count = new LongAdder(), sum = new LongAdder();
+	private LongAccumulator max = new LongAccumulator(Math::max, 0);
+	
+	public RESTHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+	
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[index(value)].increment();
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+	
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) ((value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	// the lowest value that ends up in the given bucket
+	static long lowerBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + subBucket)) << (exponent - SUB_BUCKET_BITS);
+	}
+	
+	/**
+	 * The snapshot is not atomic across buckets but every bucket is read consistently, which is good enough for monitoring purposes
+	 */
+	public Snapshot snapshot() {
+		long [] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = this.counts[i].sum();
+		}
+		return new Snapshot(counts, count.sum(), sum.sum(), max.get());
+	}
+	
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i].reset();
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+	
+	public static class Snapshot {
+		private long [] counts;
+		private long count, sum, max;
+		
+		Snapshot(long [] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+		public long getCount() {
+			return count;
+		}
+		public long getSum() {
+			return sum;
+		}
+		public long getMax() {
+			return max;
+		}
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+		/**
+		 * The percentile should be between 0 and 100, the result is the lower bound of the bucket that contains it
+		 */
+		public long getPercentile(double percentile) {
+			long total = 0;
+			for (long bucket : counts) {
+				total += bucket;
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= target) {
+					return Math.min(lowerBound(i), max);
+				}
+			}
+			return max;
+		}
+		@Override
+		public String toString() {
+			return "count=" + count + ", mean=" + (long) getMean() + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99) + ", max=" + max;
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
+
+import be.nabu.libs.http.api.HTTPRequest;
+
+/**
+ * Creates (or reuses) instances of the rest class depending on the lifecycle.
+ * The mapping of the @Context fields to the objects that should be injected is resolved once at construction time.
+ */
+public class RESTInstanceFactory {
+
+	private Class<?> restClass;
+	private RESTLifecycle lifecycle = RESTLifecycle.PER_REQUEST;
+	private int poolSize = 32;
+
+	// fields that are set once when the instance is created
+	private List<RESTInvoker.Setter> staticFields = new ArrayList<RESTInvoker.Setter>();
+	private List<Object> staticValues = new ArrayList<Object>();
+	// fields that depend on the request
+	private List<RESTInvoker.Setter> requestFields = new ArrayList<RESTInvoker.Setter>(), securityFields = new ArrayList<RESTInvoker.Setter>();
+
+	private ThreadLocal<HTTPRequest> scope = new ThreadLocal<HTTPRequest>();
+	private ThreadLocal<RESTSecurityContext> securityScope = new ThreadLocal<RESTSecurityContext>();
+	private volatile Object singleton;
+	private volatile BlockingQueue<Object> pool;
+
+	RESTInstanceFactory(Class<?> restClass, List<Object> context) throws IllegalAccessException {
+		this.restClass = restClass;
+		for (Field field : restClass.getDeclaredFields()) {
+			if (field.getAnnotation(Context.class) != null) {
+				if (HTTPRequest.class.equals(field.getType())) {
+					requestFields.add(new RESTInvoker.Setter(field));
+				}
+				else if (SecurityContext.class.equals(field.getType())) {
+					securityFields.add(new RESTInvoker.Setter(field));
+				}
+				else {
+					for (Object object : context) {
+						if (object != null && field.getType().isAssignableFrom(object.getClass())) {
+							staticFields.add(new RESTInvoker.Setter(field));
+							staticValues.add(object);
+							break;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	Object acquire(HTTPRequest request, RESTSecurityContext securityContext) throws IllegalAccessException, InstantiationException {
+		switch (lifecycle) {
+			case SINGLETON:
+				scope.set(request);
+				securityScope.set(securityContext);
+				return getSingleton();
+			case POOLED:
+				Object instance = getPool().poll();
+				if (instance == null) {
+					instance = create();
+				}
+				inject(instance, request, securityContext);
+				return instance;
+			default:
+				instance = create();
+				inject(instance, request, securityContext);
+				return instance;
+		}
+	}
+
+	void release(Object instance) throws IllegalAccessException {
+		switch (lifecycle) {
+			case SINGLETON:
+				scope.remove();
+				securityScope.remove();
+			break;
+			case POOLED:
+				// don't keep the request reachable while the instance sits in the pool
+				inject(instance, null, null);
+				// if the pool is full, the instance is simply discarded
+				getPool().offer(instance);
+			break;
+			default:
+				// nothing to do
+		}
+	}
+
+	/**
+	 * The singleton proxies resolve against the thread that handles the request.
+	 * The returned executor runs its tasks with the request that the current thread is handling, so code of the singleton that runs on it (for example while a response is streamed) can still use them.
+	 */
+	Executor bind(final Executor executor) {
+		final HTTPRequest request = scope.get();
+		final RESTSecurityContext securityContext = securityScope.get();
+		if (lifecycle != RESTLifecycle.SINGLETON || request == null) {
+			return executor;
+		}
+		return new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						// the executor might run the task on the calling thread
+						HTTPRequest previousRequest = scope.get();
+						RESTSecurityContext previousSecurityContext = securityScope.get();
+						scope.set(request);
+						securityScope.set(securityContext);
+						try {
+							command.run();
+						}
+						finally {
+							if (previousRequest == null) {
+								scope.remove();
+								securityScope.remove();
+							}
+							else {
+								scope.set(previousRequest);
+								securityScope.set(previousSecurityContext);
+							}
+						}
+					}
+				});
+			}
+		};
+	}
+
+	private Object create() throws InstantiationException, IllegalAccessException {
+		Object instance = restClass.newInstance();
+		for (int i = 0; i < staticFields.size(); i++) {
+			staticFields.get(i).set(instance, staticValues.get(i));
+		}
+		return instance;
+	}
+
+	private void inject(Object instance, HTTPRequest request, SecurityContext securityContext) throws IllegalAccessException {
+		for (RESTInvoker.Setter field : requestFields) {
+			field.set(instance, request);
+		}
+		for (RESTInvoker.Setter field : securityFields) {
+			field.set(instance, securityContext);
+		}
+	}
+
+	private Object getSingleton() throws InstantiationException, IllegalAccessException {
+		if (singleton == null) {
+			synchronized(this) {
+				if (singleton == null) {
+					Object instance = create();
+					inject(instance, newRequestProxy(), new RESTSecurityContext(securityScope));
+					singleton = instance;
+				}
+			}
+		}
+		return singleton;
+	}
+
+	private BlockingQueue<Object> getPool() {
+		if (pool == null) {
+			synchronized(this) {
+				if (pool == null) {
+					pool = new ArrayBlockingQueue<Object>(poolSize);
+				}
+			}
+		}
+		return pool;
+	}
+
+	private HTTPRequest newRequestProxy() {
+		return (HTTPRequest) Proxy.newProxyInstance(HTTPRequest.class.getClassLoader(), new Class<?>[] { HTTPRequest.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				HTTPRequest request = scope.get();
+				if (request == null) {
+					throw new IllegalStateException("The request can only be accessed while it is being handled");
+				}
+				try {
+					return method.invoke(request, args);
+				}
+				catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		});
+	}
+
+	public RESTLifecycle getLifecycle() {
+		return lifecycle;
+	}
+
+	public void setLifecycle(RESTLifecycle lifecycle) {
+		this.lifecycle = lifecycle == null ? RESTLifecycle.PER_REQUEST : lifecycle;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(int poolSize) {
+		if (pool != null) {
+			throw new IllegalStateException("The pool size can not be changed once the pool is in use");
+		}
+		this.poolSize = poolSize;
+	}
+}
@@ -0,0 +1,105 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Binds a method once to a method handle with the generic shape (Object instance, Object[] arguments) -> Object
+ * This avoids the access checks of Method.invoke() on every call. The handle is held per method rather than as a constant, so the JIT can not inline through it and it performs about the same as reflection.
+ * Only the invokers generated at compile time (see the processor module) call the method directly.
+ * Exceptions thrown by the method are wrapped in an InvocationTargetException to remain compatible with the reflective contract.
+ */
+class RESTInvoker {
+
+	private final MethodHandle handle;
+	// a generated invoker calls the method directly
+	private final RESTRoute.Invoker direct;
+
+	RESTInvoker(RESTRoute.Invoker direct) {
+		this.direct = direct;
+		this.handle = null;
+	}
+	
+	RESTInvoker(Method method) throws IllegalAccessException {
+		if (!method.isAccessible()) {
+			method.setAccessible(true);
+		}
+		MethodHandle handle = MethodHandles.lookup().unreflect(method);
+		int parameters = method.getParameterTypes().length;
+		// static methods don't need the instance, but we keep the same shape
+		if (Modifier.isStatic(method.getModifiers())) {
+			handle = MethodHandles.dropArguments(handle, 0, Object.class);
+		}
+		this.direct = null;
+		// a void return is converted to null
+		this.handle = handle.asType(MethodType.genericMethodType(parameters + 1))
+			.asSpreader(Object[].class, parameters);
+	}
+
+	Object invoke(Object instance, Object [] arguments) throws InvocationTargetException {
+		try {
+			return direct != null ? direct.invoke(instance, arguments) : (Object) handle.invokeExact(instance, arguments);
+		}
+		catch (Error e) {
+			throw e;
+		}
+		catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	/**
+	 * A setter for a field bound to a method handle with the generic shape (Object instance, Object value) -> void
+	 */
+	static class Setter {
+		private MethodHandle handle;
+
+		Setter(Field field) throws IllegalAccessException {
+			if (!field.isAccessible()) {
+				field.setAccessible(true);
+			}
+			MethodHandle handle = MethodHandles.lookup().unreflectSetter(field);
+			if (Modifier.isStatic(field.getModifiers())) {
+				handle = MethodHandles.dropArguments(handle, 0, Object.class);
+			}
+			this.handle = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+		}
+
+		void set(Object instance, Object value) {
+			try {
+				handle.invokeExact(instance, value);
+			}
+			catch (RuntimeException e) {
+				throw e;
+			}
+			catch (Error e) {
+				throw e;
+			}
+			catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+public enum RESTLifecycle {
+	/**
+	 * A new instance of the rest class is created for every request (default)
+	 */
+	PER_REQUEST,
+	/**
+	 * A single shared instance, request-scoped context fields are injected with proxies that resolve against the current request
+	 */
+	SINGLETON,
+	/**
+	 * Instances are reused from a bounded pool, request-scoped context fields are injected when an instance is taken from the pool
+	 */
+	POOLED
+}
@@ -0,0 +1,213 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import be.nabu.libs.http.api.HTTPRequest;
+import be.nabu.libs.http.api.HTTPResponse;
+import be.nabu.libs.http.core.DefaultHTTPResponse;
+import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
+
+/**
+ * Limits the amount of calls in flight for a single method.
+ * In adaptive mode the limit follows the latency (additive increase, multiplicative decrease): the best latency is tracked as a baseline, calls that are a lot slower than the baseline decrease the limit while a saturated limit with healthy latencies grows slowly.
+ * Unlimited methods don't have a limiter so they don't pay for any of this.
+ */
+public class RESTLimiter {
+
+	private int maxConcurrent, minConcurrent = 1, queueSize;
+	private long queueTimeout;
+	private boolean adaptive;
+	private double tolerance = 2;
+	private int status = 503, retryAfter = 1;
+
+	private int inFlight, waiting;
+	// the current limit, only fractional in adaptive mode so the increase can be spread out
+	private double limit;
+	// the best latency (in ns) seen recently
+	private long baseline;
+	private long rejected;
+
+	public RESTLimiter(int maxConcurrent) {
+		this.maxConcurrent = maxConcurrent;
+		this.limit = maxConcurrent;
+	}
+
+	RESTLimiter(Limited limited) {
+		this(limited.maxConcurrent());
+		this.queueSize = limited.queueSize();
+		this.queueTimeout = limited.queueTimeout();
+		this.adaptive = limited.adaptive();
+		this.minConcurrent = limited.minConcurrent();
+		this.tolerance = limited.tolerance();
+		this.status = limited.status();
+		this.retryAfter = limited.retryAfter();
+	}
+
+	/**
+	 * Returns false if the call is rejected, otherwise the caller must call release() once done
+	 */
+	public synchronized boolean acquire() {
+		if (inFlight < (int) limit) {
+			inFlight++;
+			return true;
+		}
+		if (waiting >= queueSize || queueTimeout <= 0) {
+			rejected++;
+			return false;
+		}
+		waiting++;
+		try {
+			long deadline = System.currentTimeMillis() + queueTimeout;
+			while (inFlight >= (int) limit) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					rejected++;
+					return false;
+				}
+				wait(remaining);
+			}
+			inFlight++;
+			return true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			rejected++;
+			return false;
+		}
+		finally {
+			waiting--;
+		}
+	}
+
+	/**
+	 * The latency (in ns) of the call is used to adapt the limit
+	 */
+	public synchronized void release(long latency) {
+		boolean saturated = inFlight >= (int) limit;
+		inFlight--;
+		if (adaptive) {
+			// the baseline drifts up slowly so a single lucky call does not lower the limit forever
+			baseline = baseline == 0 || latency < baseline ? latency : Math.min(latency, baseline + baseline / 100);
+			if (latency > baseline * tolerance) {
+				limit = Math.max(minConcurrent, limit * 0.9);
+			}
+			else if (saturated) {
+				limit = Math.min(maxConcurrent, limit + 1 / limit);
+			}
+		}
+		notify();
+	}
+
+	HTTPResponse newRejection(HTTPRequest request) {
+		return new DefaultHTTPResponse(request, status, status == 429 ? "Too Many Requests" : "Service Unavailable", new PlainMimeEmptyPart(null,
+			new MimeHeader("Retry-After", Integer.toString(retryAfter)),
+			new MimeHeader("Content-Length", "0")
+		));
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized int getWaiting() {
+		return waiting;
+	}
+
+	/**
+	 * The current limit, this only differs from the maximum in adaptive mode
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	public synchronized void setMaxConcurrent(int maxConcurrent) {
+		this.maxConcurrent = maxConcurrent;
+		this.limit = adaptive ? Math.min(limit, maxConcurrent) : maxConcurrent;
+		notifyAll();
+	}
+
+	public int getMinConcurrent() {
+		return minConcurrent;
+	}
+
+	public void setMinConcurrent(int minConcurrent) {
+		this.minConcurrent = minConcurrent;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public long getQueueTimeout() {
+		return queueTimeout;
+	}
+
+	public void setQueueTimeout(long queueTimeout) {
+		this.queueTimeout = queueTimeout;
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	public synchronized void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+		if (!adaptive) {
+			this.limit = maxConcurrent;
+			notifyAll();
+		}
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+	public void setRetryAfter(int retryAfter) {
+		this.retryAfter = retryAfter;
+	}
+}
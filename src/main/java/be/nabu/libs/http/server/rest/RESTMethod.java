@@ -18,37 +18,55 @@
 package be.nabu.libs.http.server.rest;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
+import javax.annotation.security.DenyAll;
+import javax.annotation.security.PermitAll;
+import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import be.nabu.libs.converter.ConverterFactory;
-import be.nabu.libs.converter.api.Converter;
 import be.nabu.libs.http.HTTPException;
 import be.nabu.libs.http.api.HTTPRequest;
 import be.nabu.libs.http.api.HTTPResponse;
@@ -64,10 +82,7 @@ import be.nabu.libs.types.api.SimpleTypeWrapper;
 import be.nabu.libs.types.binding.api.MarshallableBinding;
 import be.nabu.libs.types.binding.api.UnmarshallableBinding;
 import be.nabu.libs.types.binding.api.Window;
-import be.nabu.libs.types.binding.json.JSONBinding;
-import be.nabu.libs.types.binding.xml.XMLBinding;
 import be.nabu.libs.types.java.BeanInstance;
-import be.nabu.libs.types.java.BeanResolver;
 import be.nabu.libs.types.map.MapType;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
@@ -82,26 +97,66 @@ public class RESTMethod {
 
 	private Method method;
 	
-	private Map<Class<? extends Annotation>, Boolean> isMethod = new HashMap<Class<? extends Annotation>, Boolean>();
-	private List<Object> methodParameters;
+	// the bitmask of the verbs this method supports
+	private int verbs;
+	// one binder per method parameter
+	private RESTBinder [] binders;
+	// the names of the query parameters the method binds itself
+	private List<String> queryParameters;
 	private String methodPath;
 	private String [] produces, consumes;
+	// precomputed negotiation for the response and request types
+	private RESTNegotiator responseTypes, requestTypes;
 	private List<String> pathParameters;
+	private Pattern pathPattern;
+	private int [] pathGroups;
 	private RESTHandler restHandler;
 	private SimpleTypeWrapper simpleTypeWrapper = SimpleTypeWrapperFactory.getInstance().getWrapper();
-	private Converter converter = ConverterFactory.getInstance().getConverter();
+	
+	private volatile RESTInvoker invoker;
+	private RESTMetrics metrics = new RESTMetrics();
+	// the resolved types of the body parameters and the declared return type, they are resolved on first use
+	private ComplexType [] parameterTypes;
+	private ComplexType returnType;
+	// only set for @Cached GET methods
+	private RESTResponseCache cache;
+	// only set if the method was generated at compile time
+	private RESTRoute route;
+	// the roles that may call the method, null if anyone may
+	private String [] rolesAllowed;
+	private boolean denyAll;
+	// only set for limited methods
+	private volatile RESTLimiter limiter;
 	
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	
 	RESTMethod(RESTHandler restHandler, Method method) {
+		this(restHandler, method, null);
+	}
+	
+	/**
+	 * If a generated route is given, it replaces the analysis of the annotations
+	 */
+	RESTMethod(RESTHandler restHandler, Method method, RESTRoute route) {
 		this.restHandler = restHandler;
 		this.method = method;
-		analyze(method);
-		analyzeMethodParameters();
+		this.route = route;
+		if (route == null) {
+			analyze(method);
+		}
+		else {
+			verbs = route.getVerbs();
+			methodPath = route.getPath();
+			produces = route.getProduces();
+			consumes = route.getConsumes();
+		}
+		configure();
 		analyzePathParameters();
+		analyzeMethodParameters();
 	}
 	
 	private void analyze(Method method) {
+		verbs = RESTVerb.getMask(method);
 		methodPath = method.getAnnotation(Path.class) != null ? method.getAnnotation(Path.class).value() : "/";
 		produces = method.getAnnotation(Produces.class) != null ? method.getAnnotation(Produces.class).value() : null;
 		consumes = method.getAnnotation(Consumes.class) != null ? method.getAnnotation(Consumes.class).value() : null;
@@ -113,123 +168,277 @@ public class RESTMethod {
 			consumes = method.getDeclaringClass().getAnnotation(Consumes.class).value();
 		}
 	}
-
-	public boolean isMethod(String path, Class<? extends Annotation> annotation) {
-		if (!isMethod.containsKey(annotation)) {
-			isMethod.put(annotation, method.getAnnotation(annotation) != null);
+	
+	private void configure() {
+		if (!methodPath.startsWith("/")) {
+			methodPath = "/" + methodPath;
+		}
+		// if nothing is declared, the media types of the registered codecs are used
+		responseTypes = produces == null ? null : new RESTNegotiator(produces);
+		requestTypes = consumes == null ? null : new RESTNegotiator(consumes);
+		if (isMethod(RESTVerb.GET) && method.getAnnotation(Cached.class) != null) {
+			cache = new RESTResponseCache(method.getAnnotation(Cached.class));
 		}
-		if (!isMethod.get(annotation)) {
+		if (method.getAnnotation(Limited.class) != null) {
+			limiter = new RESTLimiter(method.getAnnotation(Limited.class));
+		}
+		// method level annotations take precedence over class level annotations
+		if (!analyzeSecurity(method)) {
+			analyzeSecurity(method.getDeclaringClass());
+		}
+	}
+	
+	private boolean analyzeSecurity(AnnotatedElement element) {
+		if (element.getAnnotation(DenyAll.class) != null) {
+			denyAll = true;
+		}
+		else if (element.getAnnotation(RolesAllowed.class) != null) {
+			rolesAllowed = element.getAnnotation(RolesAllowed.class).value();
+		}
+		else if (element.getAnnotation(PermitAll.class) == null) {
 			return false;
 		}
-		// the syntax for a more controlled match is "{name:.+}" for example which will match anything
-		String regex = methodPath.replaceAll("\\{[^/}:\\s]+[\\s]*:[\\s]*([^}\\s]+)[\\s]*\\}", "$1").replaceAll("\\{[^}/]+\\}", "[^/]+");
-		return path.matches(regex);
+		return true;
+	}
+	
+	/**
+	 * Throws a 401 if the method requires roles and the request is not authenticated, a 403 if it does not have any of the roles
+	 */
+	private void authorize(RESTSecurityContext securityContext) {
+		if (denyAll) {
+			throw new HTTPException(403, "Access to " + method.getName() + " is denied");
+		}
+		else if (rolesAllowed != null) {
+			if (securityContext.getUserPrincipal() == null) {
+				throw new HTTPException(401, "Authentication is required for " + method.getName());
+			}
+			for (String role : rolesAllowed) {
+				if (securityContext.isUserInRole(role)) {
+					return;
+				}
+			}
+			throw new HTTPException(403, "Access to " + method.getName() + " is denied");
+		}
+	}
+
+	public boolean isMethod(String path, Class<? extends Annotation> annotation) {
+		RESTVerb verb = RESTVerb.fromAnnotation(annotation);
+		return verb != null && isMethod(verb) && pathPattern.matcher(path).matches();
+	}
+	
+	public boolean isMethod(RESTVerb verb) {
+		return (verbs & verb.getMask()) != 0;
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	HTTPResponse execute(URI uri, HTTPRequest request) throws ParseException, URISyntaxException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, InstantiationException, IOException {
-		logger.debug("Executing method " + method.getName() + " in " + method.getDeclaringClass().getName());
+		return execute(uri, request, getPathValues(uri.getPath()));
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	HTTPResponse execute(URI uri, HTTPRequest request, String [] pathValues) throws ParseException, URISyntaxException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, InstantiationException, IOException {
+		logger.debug("Executing method {} in {}", method.getName(), method.getDeclaringClass().getName());
+		// unauthorized requests are rejected before anything is parsed or cached content is served
+		RESTSecurityContext securityContext = new RESTSecurityContext(restHandler.getRoleHandler(), request);
+		authorize(securityContext);
 		// @PathParam (from actual path, not query)
 		// @FormParam (can be inputstream?)
 		// @MatrixParam (ignore)
 		// @QueryParam (from query parameters)
-		String contentType = MimeUtils.getContentType(request.getContent().getHeaders());
-		Map<String, String> pathValues = getPathValues(uri.getPath());
-		Map<String, List<String>> queryValues = URIUtils.getQueryProperties(uri);
-		Map<String, List<String>> formValues = null;
+		// parameters like the charset are not taken into account when matching
+		Header contentTypeHeader = MimeUtils.getHeader("Content-Type", request.getContent().getHeaders());
+		String contentType = RESTNegotiator.getBaseType(MimeUtils.getContentType(request.getContent().getHeaders()));
+		Charset charset = RESTNegotiator.getCharset(RESTNegotiator.getFullValue(contentTypeHeader));
+		RESTBinder.Context context = new RESTBinder.Context(uri, request, pathValues, contentType, charset);
 		if (MediaType.MULTIPART_FORM_DATA.equalsIgnoreCase(contentType)) {
-			throw new HTTPException(500, "Multipart forms are currently not supported");
+			if (!(request.getContent() instanceof ContentPart)) {
+				throw new HTTPException(400, "The multipart request has no content");
+			}
+			context.setMultipart(new RESTMultipartReader(IOUtils.toInputStream(((ContentPart) request.getContent()).getReadable()), RESTMultipartReader.getBoundary(RESTNegotiator.getFullValue(contentTypeHeader))));
 		}
 		// if it is a form, it should've been parsed correctly, should really make an interface for this
 		else if ("application/x-www-form-urlencoded".equalsIgnoreCase(contentType)) {
 			if (!(request instanceof ParsedMimeFormPart)) {
 				throw new HTTPException(500, "The form request was not correctly parsed");
 			}
-			formValues = ((ParsedMimeFormPart) request).getValues();
+			context.setFormValues(((ParsedMimeFormPart) request).getValues());
 		}
-		List<Object> arguments = new ArrayList<Object>();
-		for (Object parameter : getMethodParameters()) {
-			logger.trace("Finding parameter {}", parameter);
-			if (parameter instanceof FormParam) {
-				if (formValues == null) {
-					throw new HTTPException(400, "No form parameters available");
+		RESTLimiter limiter = this.limiter;
+		Permit permit = null;
+		long acquired = 0;
+		// every exit from here on (including a cached response or a rejection) has to clean up the multipart reader
+		try {
+			RESTProjection projection = getProjection(context);
+			// a cached response is served without binding the parameters or invoking the method
+			String cacheKey = null;
+			if (cache != null) {
+				cacheKey = cache.getKey(request, pathValues, cache.getCached().query().length == 0 ? null : context.getQueryValues(), getCachedResponseType(request, contentType), projection);
+				RESTResponseCache.Entry entry = cache.get(cacheKey);
+				if (entry != null) {
+					return cache.respond(restHandler, request, entry);
 				}
-				List<String> list  = formValues.get(((FormParam) parameter).value());
-				arguments.add(list == null || list.isEmpty() ? null : list.get(0));
 			}
-			else if (parameter instanceof QueryParam) {
-				List<String> list = queryValues == null ? null : queryValues.get(((QueryParam) parameter).value());
-				arguments.add(list == null || list.isEmpty() ? null : list.get(0));
+			// excess calls are rejected before any work is done
+			if (limiter != null) {
+				if (!limiter.acquire()) {
+					return limiter.newRejection(request);
+				}
 			}
-			else if (parameter instanceof HeaderParam) {
-				Header header  = MimeUtils.getHeader(((HeaderParam) parameter).value(), request.getContent().getHeaders());
-				arguments.add(header == null ? null : header.getValue());
+			// the binding phase starts here, authorization, the cache lookup and the limiter are not part of it
+			acquired = System.nanoTime();
+			if (limiter != null) {
+				permit = new Permit(limiter, acquired);
 			}
-			else if (parameter instanceof PathParam) {
-				arguments.add(URIUtils.decodeURIComponent(pathValues.get(((PathParam) parameter).value())));
+			Object [] arguments = new Object[binders.length];
+			for (int i = 0; i < binders.length; i++) {
+				arguments[i] = binders[i].bind(context);
 			}
-			else if (parameter instanceof Class && InputStream.class.equals((Class) parameter)) {
-				ReadableContainer<ByteBuffer> readable = request.getContent() instanceof ContentPart ? ((ContentPart) request.getContent()).getReadable() : null;
-				arguments.add(readable == null ? null : IOUtils.toInputStream(readable));
+			if (logger.isTraceEnabled()) {
+				logger.trace("Arguments: {}", Arrays.asList(arguments));
 			}
-			else if (parameter instanceof Class && byte[].class.isAssignableFrom((Class) parameter)) {
-				arguments.add(request.getContent() instanceof ContentPart ? IOUtils.toBytes(((ContentPart) request.getContent()).getReadable()) : null);
+			RESTAsyncResponse asyncResponse = context.getAsyncResponse();
+			boolean recordMetrics = restHandler.isMetricsEnabled();
+			long bound = System.nanoTime();
+			if (recordMetrics) {
+				metrics.record(RESTMetrics.Phase.BINDING, bound - acquired);
 			}
-			else if (parameter instanceof Class && (HTTPRequest.class.equals(parameter) || request.getClass().equals(parameter))) {
-				arguments.add(request);
+			Object instance = restHandler.acquire(request, securityContext);
+			// the instance is only released once the response is marshalled, the response may still call into the request scope (e.g. lazy getters or a stream)
+			try {
+				Object response;
+				try {
+					response = getInvoker().invoke(instance, arguments);
+				}
+				finally {
+					if (recordMetrics) {
+						metrics.record(RESTMetrics.Phase.INVOKE, System.nanoTime() - bound);
+					}
+				}
+				if (asyncResponse != null || response instanceof CompletionStage) {
+					return awaitResponse(request, contentType, asyncResponse != null ? asyncResponse.getFuture() : ((CompletionStage<Object>) response).toCompletableFuture(), asyncResponse, projection, permit);
+				}
+				else if (cacheKey != null) {
+					HTTPResponse cached = cache(request, contentType, cacheKey, response, projection);
+					if (cached != null) {
+						return cached;
+					}
+				}
+				return marshal(request, contentType, response, projection, permit);
 			}
-			else if (parameter instanceof Class && Header[].class.equals(parameter)) {
-				arguments.add(request.getContent().getHeaders());
+			finally {
+				restHandler.release(instance);
 			}
-			else if (parameter instanceof Class && (Part.class.equals(parameter) || request.getContent().getClass().equals(parameter))) {
-				arguments.add(request.getContent());
+		}
+		finally {
+			// a streamed response releases the permit once it is written
+			if (permit != null && !permit.deferred) {
+				permit.release();
 			}
-			// TODO: should add support for lists...
-			// we assume it's an interpreted object that is in the body
-			else if (parameter instanceof Class) {
-				Object unmarshalled = null;
-				if (request.getContent() instanceof ContentPart) {
-					List<String> allowedContentTypes = consumes == null ? Arrays.asList(MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON) : Arrays.asList(consumes);
-					if (contentType != null && !allowedContentTypes.contains(contentType)) {
-						throw new HTTPException(400, "Invalid content type");
-					}
-					UnmarshallableBinding binding = MediaType.APPLICATION_JSON.equals(contentType == null ? allowedContentTypes.get(0) : contentType) 
-						? new JSONBinding((ComplexType) BeanResolver.getInstance().resolve((Class<?>) parameter))
-						: new XMLBinding((ComplexType) BeanResolver.getInstance().resolve((Class<?>) parameter), Charset.defaultCharset());
-					if (binding instanceof JSONBinding) {
-						((JSONBinding) binding).setEnableMapSupport(true);
-						// allow elements we don't know, needed to allow this in maps...
-						((JSONBinding) binding).setAllowDynamicElements(true);
-						((JSONBinding) binding).setIgnoreRootIfArrayWrapper(true);
-						// does not work well with the enable map support! we don't add dynamic keys then!
-//						((JSONBinding) binding).setIgnoreUnknownElements(true);
-					}
-					unmarshalled = binding.unmarshal(IOUtils.toInputStream(((ContentPart) request.getContent()).getReadable()), new Window[0]);
-					unmarshalled = ((BeanInstance) unmarshalled).getUnwrapped();
+			// removes any temporary files
+			if (context.getMultipart() != null) {
+				context.getMultipart().close();
+			}
+		}
+	}
+	
+	private Object toFormArgument(RESTBinder.Context context, RESTFormPart part, Class<?> type) throws IOException {
+		if (RESTFormPart.class.equals(type)) {
+			return part;
+		}
+		else if (InputStream.class.equals(type)) {
+			return part.getInputStream();
+		}
+		else if (byte[].class.equals(type)) {
+			return part.getBytes();
+		}
+		// never converted from the content, that would let the client choose the path
+		else if (File.class.equals(type)) {
+			return context.getMultipart().toFile(part, restHandler.getMultipartDirectory());
+		}
+		// anything else is converted from the text
+		return part.getString();
+	}
+	
+	private HTTPResponse marshal(HTTPRequest request, String contentType, Object response, RESTProjection projection, Permit permit) throws ParseException, IOException {
+		long started = System.nanoTime();
+		try {
+			return toResponse(request, contentType, response, projection, permit);
+		}
+		finally {
+			if (restHandler.isMetricsEnabled()) {
+				metrics.record(RESTMetrics.Phase.MARSHAL, System.nanoTime() - started);
+			}
+		}
+	}
+	
+	/**
+	 * The http handler contract is synchronous so the calling thread waits for the result, the marshalling happens on the async executor
+	 */
+	private HTTPResponse awaitResponse(final HTTPRequest request, final String contentType, CompletableFuture<Object> future, RESTAsyncResponse asyncResponse, final RESTProjection projection, final Permit permit) throws InvocationTargetException {
+		CompletableFuture<HTTPResponse> marshalled = future.thenApplyAsync(new Function<Object, HTTPResponse>() {
+			@Override
+			public HTTPResponse apply(Object response) {
+				try {
+					return marshal(request, contentType, response, projection, permit);
+				}
+				catch (HTTPException e) {
+					throw e;
+				}
+				catch (Exception e) {
+					throw new CompletionException(e);
 				}
-				arguments.add(unmarshalled);
 			}
-			else {
-				throw new HTTPException(500, "Invalid parameter: " + parameter);
+		}, restHandler.bind(restHandler.getAsyncExecutor()));
+		try {
+			while (true) {
+				long timeout = asyncResponse != null && asyncResponse.getTimeout() > 0 ? asyncResponse.getTimeout() : restHandler.getAsyncTimeout();
+				try {
+					return marshalled.get(timeout, TimeUnit.MILLISECONDS);
+				}
+				catch (TimeoutException e) {
+					if (asyncResponse == null || !asyncResponse.handleTimeout()) {
+						future.cancel(true);
+						throw new HTTPException(503, "Timed out waiting for the response", e);
+					}
+				}
 			}
 		}
-		logger.trace("Arguments: {}", arguments);
-		// do some conversion if necessary
-		Class<?>[] types = method.getParameterTypes();
-		for (int i = 0; i < arguments.size(); i++) {
-			if (arguments.get(i) != null && !types[i].isAssignableFrom(arguments.get(i).getClass())) {
-				arguments.set(i, converter.convert(arguments.get(i), types[i]));
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HTTPException(503, e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			while (cause instanceof CompletionException && cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof HTTPException) {
+				throw (HTTPException) cause;
 			}
+			// same contract as a synchronous invocation
+			throw new InvocationTargetException(cause);
 		}
-		Object response = method.invoke(restHandler.newInstance(request), arguments.toArray());
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private HTTPResponse toResponse(HTTPRequest request, String contentType, Object response, RESTProjection projection, Permit permit) throws ParseException, IOException {
 		if (response instanceof byte[]) {
-			return HTTPUtils.newResponse(request, produces == null ? MediaType.APPLICATION_OCTET_STREAM : produces[0], IOUtils.wrap((byte[]) response, true));
+			return restHandler.newResponse(request, produces == null ? MediaType.APPLICATION_OCTET_STREAM : produces[0], (byte[]) response);
 		}
 		else if (response instanceof InputStream) {
 			return HTTPUtils.newResponse(request, produces == null ? MediaType.APPLICATION_OCTET_STREAM : produces[0], IOUtils.wrap((InputStream) response));
 		}
+		// files are sent from disk, partial and conditional requests are supported
+		else if (response instanceof File) {
+			return RESTFileResponse.newResponse(request, produces == null ? null : produces[0], ((File) response).toPath());
+		}
+		else if (response instanceof java.nio.file.Path) {
+			return RESTFileResponse.newResponse(request, produces == null ? null : produces[0], (java.nio.file.Path) response);
+		}
+		else if (response instanceof FileChannel) {
+			return RESTFileResponse.newResponse(request, produces == null ? null : produces[0], (FileChannel) response, 0);
+		}
 		else if (response instanceof String) {
-			return HTTPUtils.newResponse(request, produces == null ? MediaType.TEXT_PLAIN : produces[0], IOUtils.wrap(((String) response).getBytes(), true));
+			return restHandler.newResponse(request, produces == null ? MediaType.TEXT_PLAIN : produces[0], ((String) response).getBytes());
 		}
 		// if it's already a part, you did all the heavy lifting
 		else if (response instanceof Part) {
@@ -238,117 +447,554 @@ public class RESTMethod {
 		else if (response instanceof HTTPResponse) {
 			return (HTTPResponse) response;
 		}
+		// collections are marshalled element by element as they are pulled
+		else if (response instanceof Stream || response instanceof Iterator || (response instanceof Iterable && Iterable.class.equals(method.getReturnType()))) {
+			String responseType = getResponseType(request, contentType);
+			RESTCollectionCodec codec = getCollectionCodec(responseType);
+			if (codec == null) {
+				throw new HTTPException(406, "The response type " + responseType + " can not be streamed");
+			}
+			return restHandler.newStreamingResponse(request, responseType, defer(permit, new RESTCollectionWriter(response, codec, projection)));
+		}
 		else if (response != null) {
 			byte [] content;
 			String responseType;
 			
-			if (response instanceof ComplexContent || simpleTypeWrapper.wrap(response.getClass()) == null) {
-				List<String> allowedResponseTypes = produces == null ? Arrays.asList(MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON) : Arrays.asList(produces);
-				Header acceptHeader = MimeUtils.getHeader("Accept", request.getContent().getHeaders());
-				if (acceptHeader != null && allowedResponseTypes.contains(acceptHeader.getValue())) {
-					responseType = acceptHeader.getValue();
-				}
-				// match the incoming type if nothing is specified
-				else if (contentType != null && allowedResponseTypes.contains(contentType)) {
-					responseType = contentType;
-				}
-				else if (restHandler.getDefaultResponseType() != null && allowedResponseTypes.contains(restHandler.getDefaultResponseType())) {
-					responseType = restHandler.getDefaultResponseType();
-				}
-				else {
-					responseType = allowedResponseTypes.get(0);
+			DefinedSimpleType<? extends Object> simpleType = response instanceof ComplexContent ? null : simpleTypeWrapper.wrap(response.getClass());
+			if (response instanceof ComplexContent || simpleType == null) {
+				responseType = getResponseType(request, contentType);
+				if (restHandler.isStreamingResponses()) {
+					final MarshallableBinding binding = getCodec(responseType).newMarshallable(response instanceof ComplexContent ? ((ComplexContent) response).getType() : getReturnType(response.getClass()), RESTBindings.UTF8);
+					final ComplexContent complexContent = toComplexContent(response, projection);
+					return restHandler.newStreamingResponse(request, responseType, defer(permit, new RESTStreamWriter() {
+						@Override
+						public void write(OutputStream output) throws Exception {
+							binding.marshal(output, complexContent);
+						}
+					}));
 				}
-				MarshallableBinding binding = MediaType.APPLICATION_JSON.equals(responseType) 
-					? new JSONBinding((ComplexType) (response instanceof ComplexContent ? ((ComplexContent) response).getType() : BeanResolver.getInstance().resolve(response.getClass())))
-					: new XMLBinding((ComplexType) (response instanceof ComplexContent ? ((ComplexContent) response).getType() : BeanResolver.getInstance().resolve(response.getClass())), Charset.defaultCharset());
-				ByteArrayOutputStream output = new ByteArrayOutputStream();
-				binding.marshal(output, response instanceof ComplexContent ? (ComplexContent) response : new BeanInstance(response));
-				content = output.toByteArray();
+				content = marshalComplex(response, responseType, projection);
 			}
 			else {
-				DefinedSimpleType<? extends Object> resolved = simpleTypeWrapper.wrap(response.getClass());
-				if (!(resolved instanceof Marshallable)) {
-					throw new ParseException("The response of " + method + " is not marshallable", 0);
-				}
-				content = ((Marshallable) resolved).marshal(response).getBytes();
+				content = marshalSimple(response, simpleType);
 				responseType = "text/plain";
 			}
-			return HTTPUtils.newResponse(request, responseType, IOUtils.wrap(content, true));
+			return restHandler.newResponse(request, responseType, content);
 		}
 		else {
 			return HTTPUtils.newEmptyResponse(request);
 		}
 	}
 	
-	private List<String> getPathParameters() {
-		if (pathParameters == null) {
-			synchronized(this) {
-				if (pathParameters == null) {
-					analyzePathParameters();
+	/**
+	 * Marshals the response in memory and stores it in the cache, returns null if the response can not be cached
+	 */
+	private HTTPResponse cache(HTTPRequest request, String contentType, String key, Object response, RESTProjection projection) throws ParseException, IOException {
+		if (response == null || response instanceof InputStream || response instanceof File || response instanceof java.nio.file.Path || response instanceof FileChannel || response instanceof Part || response instanceof HTTPResponse || response instanceof Stream || response instanceof Iterator || (response instanceof Iterable && Iterable.class.equals(method.getReturnType()))) {
+			return null;
+		}
+		long started = System.nanoTime();
+		try {
+			byte [] content;
+			String responseType;
+			if (response instanceof byte[]) {
+				content = (byte[]) response;
+				responseType = produces == null ? MediaType.APPLICATION_OCTET_STREAM : produces[0];
+			}
+			else if (response instanceof String) {
+				content = ((String) response).getBytes();
+				responseType = produces == null ? MediaType.TEXT_PLAIN : produces[0];
+			}
+			else {
+				DefinedSimpleType<? extends Object> simpleType = response instanceof ComplexContent ? null : simpleTypeWrapper.wrap(response.getClass());
+				if (response instanceof ComplexContent || simpleType == null) {
+					responseType = getResponseType(request, contentType);
+					content = marshalComplex(response, responseType, projection);
+				}
+				else {
+					content = marshalSimple(response, simpleType);
+					responseType = "text/plain";
 				}
 			}
+			return cache.respond(restHandler, request, cache.put(key, responseType, content));
+		}
+		finally {
+			if (restHandler.isMetricsEnabled()) {
+				metrics.record(RESTMetrics.Phase.MARSHAL, System.nanoTime() - started);
+			}
 		}
-		return pathParameters;
 	}
-
-	private void analyzePathParameters() {
-		pathParameters = new ArrayList<String>();
-		Pattern pattern = Pattern.compile("\\{([^}]+)\\}");
-		Matcher matcher = pattern.matcher(methodPath);
-		while (matcher.find()) {
-			pathParameters.add(matcher.group(1).replaceAll("[\\s]*:.*$", ""));
+	
+	/**
+	 * Keeps the limiter permit until the stream is written (or closed without being written), otherwise the call would leave the limit before it does most of its work
+	 */
+	private static RESTStreamWriter defer(final Permit permit, final RESTStreamWriter writer) {
+		if (permit == null) {
+			return writer;
 		}
+		permit.deferred = true;
+		return new DeferredWriter(writer, permit);
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private byte [] marshalComplex(Object response, String responseType, RESTProjection projection) throws IOException {
+		MarshallableBinding binding = getCodec(responseType).newMarshallable(response instanceof ComplexContent ? ((ComplexContent) response).getType() : getReturnType(response.getClass()), RESTBindings.UTF8);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		binding.marshal(output, toComplexContent(response, projection));
+		return output.toByteArray();
 	}
 	
-	private Map<String, String> getPathValues(String path) {
-		List<String> pathParameters = getPathParameters();
-		Map<String, String> values = new HashMap<String, String>();
-		String regex = methodPath.replaceAll("\\{[^/}:\\s]+[\\s]*:[\\s]*([^}\\s]+)[\\s]*\\}", "($1)").replaceAll("\\{[^}/]+\\}", "([^/]+)");
-		for (int i = 0; i < pathParameters.size(); i++) {
-			String value = path.replaceAll(regex, "$" + (i + 1));
-			values.put(pathParameters.get(i), value);
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private byte [] marshalSimple(Object response, DefinedSimpleType<? extends Object> simpleType) throws ParseException {
+		if (!(simpleType instanceof Marshallable)) {
+			throw new ParseException("The response of " + method + " is not marshallable", 0);
 		}
-		return values;
+		return ((Marshallable) simpleType).marshal(response).getBytes();
 	}
 	
-	private List<Object> getMethodParameters() {
-		if (methodParameters == null) {
-			synchronized(this) {
-				if (methodParameters == null) {
-					analyzeMethodParameters();
+	// the codec gets a view on the content that hides the fields that are not selected
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ComplexContent toComplexContent(Object response, RESTProjection projection) {
+		ComplexContent content = response instanceof ComplexContent ? (ComplexContent) response : new BeanInstance(response);
+		return projection == null ? content : new RESTProjectedContent(content, projection);
+	}
+	
+	/**
+	 * The fields selected in the query, unless the method uses the parameter itself
+	 */
+	private RESTProjection getProjection(RESTBinder.Context context) {
+		String parameter = restHandler.getFieldsParameter();
+		String query = context.getUri().getRawQuery();
+		// don't parse the query if the parameter is not there, most requests don't have it
+		if (parameter == null || queryParameters.contains(parameter) || query == null || !("&" + query).contains("&" + parameter + "=")) {
+			return null;
+		}
+		List<String> values = context.getQueryValues().get(parameter);
+		if (values == null || values.isEmpty() || values.get(0).trim().isEmpty()) {
+			return null;
+		}
+		try {
+			RESTProjection projection = RESTProjection.parse(values.get(0));
+			// no need to wrap the content (or split the cache) if everything is selected
+			return projection.isAll() ? null : projection;
+		}
+		catch (ParseException e) {
+			throw new HTTPException(400, "Invalid field selection: " + e.getMessage(), e);
+		}
+	}
+	
+	// the type the body should be parsed as
+	// anything without a codec is treated as xml, as it always has been
+	private RESTCodec getCodec(String mediaType) {
+		RESTCodec codec = restHandler.getCodec(mediaType);
+		return codec == null ? RESTBindings.XML : codec;
+	}
+	
+	// streamed collections need a codec that handles elements, there is no fallback to xml
+	// newline delimited json is available without registering it
+	private RESTCollectionCodec getCollectionCodec(String mediaType) {
+		RESTCodec codec = restHandler.getCodec(mediaType);
+		if (codec == null && RESTCollectionWriter.APPLICATION_NDJSON.equals(mediaType)) {
+			return RESTBindings.NDJSON;
+		}
+		return codec instanceof RESTCollectionCodec ? (RESTCollectionCodec) codec : null;
+	}
+	
+	private String getRequestType(String contentType) {
+		RESTNegotiator requestTypes = this.requestTypes == null ? restHandler.getCodecTypes() : this.requestTypes;
+		if (contentType == null) {
+			return requestTypes.getAvailable()[0];
+		}
+		else if (requestTypes.match(contentType) == null) {
+			throw new HTTPException(400, "Invalid content type");
+		}
+		return contentType;
+	}
+	
+	// simple responses have a fixed type, only a complex response type is negotiated
+	private String getCachedResponseType(HTTPRequest request, String contentType) {
+		Class<?> returnType = method.getReturnType();
+		if (String.class.equals(returnType) || byte[].class.equals(returnType) || returnType.isPrimitive() || simpleTypeWrapper.wrap(returnType) != null) {
+			return null;
+		}
+		return getResponseType(request, contentType);
+	}
+	
+	private String getResponseType(HTTPRequest request, String contentType) {
+		Header acceptHeader = MimeUtils.getHeader("Accept", request.getContent().getHeaders());
+		RESTNegotiator responseTypes = this.responseTypes == null ? restHandler.getCodecTypes() : this.responseTypes;
+		String [] candidates = responseTypes.negotiate(RESTNegotiator.getFullValue(acceptHeader));
+		if (candidates.length == 0) {
+			throw new HTTPException(406, "None of the accepted types can be produced");
+		}
+		else if (candidates.length == 1) {
+			return candidates[0];
+		}
+		// if the client has no preference, match the incoming type
+		for (String candidate : candidates) {
+			if (candidate.equalsIgnoreCase(contentType)) {
+				return candidate;
+			}
+		}
+		String defaultResponseType = restHandler.getDefaultResponseType();
+		if (defaultResponseType != null) {
+			for (String candidate : candidates) {
+				if (candidate.equalsIgnoreCase(defaultResponseType)) {
+					return candidate;
 				}
 			}
 		}
-		return methodParameters;
+		return candidates[0];
 	}
-
+	
+	// done once in the constructor, before the binders that need the names are created
+	private void analyzePathParameters() {
+		RESTRouter.PathTemplate template = new RESTRouter.PathTemplate(methodPath);
+		pathPattern = template.getPattern();
+		pathGroups = template.getGroups();
+		pathParameters = template.getNames();
+	}
+	
+	String[] getPathValues(String path) {
+		String [] values = new String[pathGroups.length];
+		Matcher matcher = pathPattern.matcher(path);
+		if (matcher.matches()) {
+			for (int i = 0; i < pathGroups.length; i++) {
+				values[i] = matcher.group(pathGroups[i]);
+			}
+		}
+		return values;
+	}
+	
 	private void analyzeMethodParameters() {
-		// assign to local variable first, otherwise it's possible in massive concurrency to pick up an empty list
-		List<Object> methodParameters = new ArrayList<Object>();
 		Class<?>[] parameters = method.getParameterTypes();
-		Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+		Annotation[][] parameterAnnotations = route == null ? method.getParameterAnnotations() : null;
+		Type[] genericParameters = method.getGenericParameterTypes();
+		RESTBinder [] binders = new RESTBinder[parameters.length];
+		List<String> queryParameters = new ArrayList<String>();
 		for (int i = 0; i < parameters.length; i++) {
-			Annotation[] annotations = parameterAnnotations[i];
-			boolean foundAnnotation = false;
-			if (annotations != null) {
-				for (Annotation annotation : annotations) {
-					if (annotation instanceof PathParam || annotation instanceof QueryParam || annotation instanceof FormParam || annotation instanceof HeaderParam) {
-						methodParameters.add(annotation);
-						foundAnnotation = true;
-						break;
-					}
+			Class<?> elementType = null;
+			if (RESTCollectionReader.isCollection(parameters[i]) && genericParameters[i] instanceof ParameterizedType) {
+				Type type = ((ParameterizedType) genericParameters[i]).getActualTypeArguments()[0];
+				if (type instanceof Class) {
+					elementType = (Class<?>) type;
 				}
 			}
-			// just add the class, we'll figure it out at runtime
-			if (!foundAnnotation) {
-				methodParameters.add(parameters[i]);
+			RESTRoute.Parameter parameter = route == null ? toParameter(parameterAnnotations[i]) : route.getParameters()[i];
+			binders[i] = parameter.getSource() == RESTRoute.Source.TYPE ? newBinder(i, parameters[i], elementType) : newBinder(parameters[i], parameter);
+			if (parameter.getSource() == RESTRoute.Source.QUERY) {
+				queryParameters.add(parameter.getName());
+			}
+		}
+		this.parameterTypes = new ComplexType[parameters.length];
+		this.queryParameters = queryParameters;
+		this.binders = binders;
+	}
+	
+	private static RESTRoute.Parameter toParameter(Annotation [] annotations) {
+		String defaultValue = null;
+		RESTRoute.Source source = RESTRoute.Source.TYPE;
+		String name = null;
+		for (Annotation annotation : annotations) {
+			if (annotation instanceof DefaultValue) {
+				defaultValue = ((DefaultValue) annotation).value();
+			}
+			else if (source != RESTRoute.Source.TYPE) {
+				continue;
+			}
+			else if (annotation instanceof PathParam) {
+				source = RESTRoute.Source.PATH;
+				name = ((PathParam) annotation).value();
+			}
+			else if (annotation instanceof QueryParam) {
+				source = RESTRoute.Source.QUERY;
+				name = ((QueryParam) annotation).value();
+			}
+			else if (annotation instanceof HeaderParam) {
+				source = RESTRoute.Source.HEADER;
+				name = ((HeaderParam) annotation).value();
+			}
+			else if (annotation instanceof FormParam) {
+				source = RESTRoute.Source.FORM;
+				name = ((FormParam) annotation).value();
+			}
+			else if (annotation instanceof Suspended) {
+				source = RESTRoute.Source.SUSPENDED;
+			}
+		}
+		return new RESTRoute.Parameter(source, name, defaultValue);
+	}
+	
+	private RESTBinder newBinder(final Class<?> type, RESTRoute.Parameter parameter) {
+		String defaultValue = parameter.getDefaultValue();
+		final String name = parameter.getName();
+		if (parameter.getSource() == RESTRoute.Source.PATH) {
+			final int index = pathParameters.indexOf(name);
+			return new RESTBinder.Value(type, defaultValue) {
+				@Override
+				Object getValue(RESTBinder.Context context) {
+					return index < 0 ? null : URIUtils.decodeURIComponent(context.getPathValues()[index]);
+				}
+			};
+		}
+		else if (parameter.getSource() == RESTRoute.Source.QUERY) {
+			return new RESTBinder.Value(type, defaultValue) {
+				@Override
+				Object getValue(RESTBinder.Context context) {
+					Map<String, List<String>> queryValues = context.getQueryValues();
+					return queryValues == null ? null : first(queryValues.get(name));
+				}
+			};
+		}
+		else if (parameter.getSource() == RESTRoute.Source.HEADER) {
+			return new RESTBinder.Value(type, defaultValue) {
+				@Override
+				Object getValue(RESTBinder.Context context) {
+					Header header = MimeUtils.getHeader(name, context.getRequest().getContent().getHeaders());
+					return header == null ? null : header.getValue();
+				}
+			};
+		}
+		else if (parameter.getSource() == RESTRoute.Source.FORM) {
+			return new RESTBinder.Value(type, defaultValue) {
+				@Override
+				Object getValue(RESTBinder.Context context) throws IOException {
+					if (context.getMultipart() != null) {
+						List<RESTFormPart> list = context.getFormParts(restHandler).get(name);
+						return list == null || list.isEmpty() ? null : toFormArgument(context, list.get(0), type);
+					}
+					else if (context.getFormValues() == null) {
+						throw new HTTPException(400, "No form parameters available");
+					}
+					else if (File.class.equals(type)) {
+						throw new HTTPException(400, "A file can only be uploaded in a multipart request");
+					}
+					return first(context.getFormValues().get(name));
+				}
+			};
+		}
+		// @Suspended
+		else {
+			return new RESTBinder() {
+				@Override
+				Object bind(RESTBinder.Context context) {
+					RESTAsyncResponse asyncResponse = new RESTAsyncResponse(context.getRequest());
+					context.setAsyncResponse(asyncResponse);
+					return asyncResponse;
+				}
+			};
+		}
+	}
+	
+	private RESTBinder newBinder(final int index, final Class<?> type, final Class<?> elementType) {
+		if (InputStream.class.equals(type)) {
+			return new RESTBinder() {
+				@Override
+				Object bind(RESTBinder.Context context) throws IOException {
+					HTTPRequest request = context.getRequest();
+					ReadableContainer<ByteBuffer> readable = request.getContent() instanceof ContentPart ? ((ContentPart) request.getContent()).getReadable() : null;
+					return readable == null ? null : IOUtils.toInputStream(readable);
+				}
+			};
+		}
+		else if (byte[].class.equals(type)) {
+			return new RESTBinder() {
+				@Override
+				Object bind(RESTBinder.Context context) throws IOException {
+					HTTPRequest request = context.getRequest();
+					return request.getContent() instanceof ContentPart ? IOUtils.toBytes(((ContentPart) request.getContent()).getReadable()) : null;
+				}
+			};
+		}
+		else if (HTTPRequest.class.isAssignableFrom(type)) {
+			return new RESTBinder() {
+				@Override
+				Object bind(RESTBinder.Context context) {
+					return type.isInstance(context.getRequest()) ? context.getRequest() : null;
+				}
+			};
+		}
+		else if (Header[].class.equals(type)) {
+			return new RESTBinder() {
+				@Override
+				Object bind(RESTBinder.Context context) {
+					return context.getRequest().getContent().getHeaders();
+				}
+			};
+		}
+		else if (Part.class.isAssignableFrom(type)) {
+			return new RESTBinder() {
+				@Override
+				Object bind(RESTBinder.Context context) {
+					return type.isInstance(context.getRequest().getContent()) ? context.getRequest().getContent() : null;
+				}
+			};
+		}
+		// the parts are handed out in order as they arrive
+		else if (RESTFormPart.class.equals(elementType)) {
+			return new RESTBinder() {
+				@Override
+				Object bind(RESTBinder.Context context) {
+					return context.getMultipart() == null ? null : RESTCollectionReader.toCollection(type, context.getMultipart());
+				}
+			};
+		}
+		// a collection in the body that is parsed as it is consumed
+		else if (elementType != null) {
+			return new RESTBinder() {
+				@Override
+				Object bind(RESTBinder.Context context) throws IOException {
+					HTTPRequest request = context.getRequest();
+					if (!(request.getContent() instanceof ContentPart)) {
+						return null;
+					}
+					String requestType = getRequestType(context.getContentType());
+					RESTCollectionCodec codec = getCollectionCodec(requestType);
+					if (codec == null) {
+						throw new HTTPException(415, "The request type " + requestType + " can not be streamed");
+					}
+					return RESTCollectionReader.newCollection(type, elementType, IOUtils.toInputStream(((ContentPart) request.getContent()).getReadable()), codec, context.getCharset());
+				}
+			};
+		}
+		// we assume it's an interpreted object that is in the body
+		else {
+			return new RESTBinder() {
+				@SuppressWarnings("rawtypes")
+				@Override
+				Object bind(RESTBinder.Context context) throws IOException, ParseException {
+					HTTPRequest request = context.getRequest();
+					if (!(request.getContent() instanceof ContentPart)) {
+						return null;
+					}
+					UnmarshallableBinding binding = getCodec(getRequestType(context.getContentType())).newUnmarshallable(getParameterType(index), context.getCharset() == null ? RESTBindings.UTF8 : context.getCharset());
+					Object unmarshalled = binding.unmarshal(IOUtils.toInputStream(((ContentPart) request.getContent()).getReadable()), new Window[0]);
+					return ((BeanInstance) unmarshalled).getUnwrapped();
+				}
+			};
+		}
+	}
+	
+	private ComplexType getParameterType(int index) {
+		if (parameterTypes[index] == null) {
+			parameterTypes[index] = RESTBindings.resolve(method.getParameterTypes()[index]);
+		}
+		return parameterTypes[index];
+	}
+	
+	private ComplexType getReturnType(Class<?> runtimeClass) {
+		// polymorphic return values fall back to the bounded cache
+		if (!method.getReturnType().equals(runtimeClass)) {
+			return RESTBindings.resolve(runtimeClass);
+		}
+		if (returnType == null) {
+			returnType = RESTBindings.resolve(runtimeClass);
+		}
+		return returnType;
+	}
+	
+	// the invoker is only bound when the method is actually called, the rest class can contain any number of non-rest methods
+	private RESTInvoker getInvoker() throws IllegalAccessException {
+		if (invoker == null) {
+			synchronized(this) {
+				if (invoker == null) {
+					invoker = route == null ? new RESTInvoker(method) : new RESTInvoker(route.getInvoker());
+				}
 			}
 		}
-		this.methodParameters = methodParameters;
+		return invoker;
 	}
 	
+	/**
+	 * The response cache, null if the method is not cached
+	 */
+	public RESTResponseCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * The concurrency limiter, null if the method is not limited
+	 */
+	public RESTLimiter getLimiter() {
+		return limiter;
+	}
+	
+	public void setLimiter(RESTLimiter limiter) {
+		this.limiter = limiter;
+	}
+	
+	RESTHandler getHandler() {
+		return restHandler;
+	}
+	
+	public RESTMetrics getMetrics() {
+		return metrics;
+	}
+	
+	public Method getMethod() {
+		return method;
+	}
+
+	public String getMethodPath() {
+		return methodPath;
+	}
+
 	@Override
 	public String toString() {
 		return method.getDeclaringClass() + ":" + method.getName();
 	}
+	
+	/**
+	 * A call admitted by the limiter, it is released exactly once
+	 */
+	private static class Permit {
+		private RESTLimiter limiter;
+		private long acquired;
+		private AtomicBoolean released = new AtomicBoolean();
+		private volatile boolean deferred;
+		
+		Permit(RESTLimiter limiter, long acquired) {
+			this.limiter = limiter;
+			this.acquired = acquired;
+		}
+		
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				limiter.release(System.nanoTime() - acquired);
+			}
+		}
+	}
+	
+	private static class DeferredWriter implements RESTStreamWriter, AutoCloseable {
+		private RESTStreamWriter writer;
+		private Permit permit;
+		
+		DeferredWriter(RESTStreamWriter writer, Permit permit) {
+			this.writer = writer;
+			this.permit = permit;
+		}
+
+		@Override
+		public void write(OutputStream output) throws Exception {
+			try {
+				writer.write(output);
+			}
+			finally {
+				permit.release();
+			}
+		}
+
+		// called if the stream is never written
+		@Override
+		public void close() throws Exception {
+			try {
+				if (writer instanceof AutoCloseable) {
+					((AutoCloseable) writer).close();
+				}
+			}
+			finally {
+				permit.release();
+			}
+		}
+	}
 }
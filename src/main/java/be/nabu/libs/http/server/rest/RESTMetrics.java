@@ -0,0 +1,169 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+package be.nabu.libs.http.server.rest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.api.Part;
+import be.nabu.utils.mime.impl.MimeUtils;
+
+/**
+ * The metrics of a single rest method, all the recording is lock-free so it can stay enabled under full load.
+ * The latencies are recorded in nanoseconds and split per phase so you can see where the time is spent.
+ */
+public class RESTMetrics {
+
+	public enum Phase {
+		// finding the method that matches the request
+		ROUTING,
+		// building the arguments, including unmarshalling the body
+		BINDING,
+		// the actual method call (including instantiation)
+		INVOKE,
+		// converting the result into a response
+		MARSHAL,
+		// the total time spent in the handler
+		TOTAL
+	}
+	
+	private LongAdder calls = new LongAdder(), inFlight = new LongAdder(), requestBytes = new LongAdder(), responseBytes = new LongAdder();
+	private ConcurrentMap<Integer, LongAdder> errors = new ConcurrentHashMap<Integer, LongAdder>();
+	private RESTHistogram [] latencies = new RESTHistogram[Phase.values().length];
+	
+	public RESTMetrics() {
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = new RESTHistogram();
+		}
+	}
+	
+	void start() {
+		calls.increment();
+		inFlight.increment();
+	}
+	
+	void stop(long started) {
+		inFlight.decrement();
+		record(Phase.TOTAL, System.nanoTime() - started);
+	}
+	
+	void record(Phase phase, long nanoseconds) {
+		latencies[phase.ordinal()].record(nanoseconds);
+	}
+	
+	void error(int code) {
+		LongAdder adder = errors.get(code);
+		if (adder == null) {
+			adder = new LongAdder();
+			LongAdder existing = errors.putIfAbsent(code, adder);
+			if (existing != null) {
+				adder = existing;
+			}
+		}
+		adder.increment();
+	}
+	
+	void requestBytes(long bytes) {
+		requestBytes.add(bytes);
+	}
+	
+	void responseBytes(long bytes) {
+		responseBytes.add(bytes);
+	}
+	
+	static Long getContentLength(Part part) {
+		Header header = part == null ? null : MimeUtils.getHeader("Content-Length", part.getHeaders());
+		if (header != null && header.getValue() != null) {
+			try {
+				return Long.parseLong(header.getValue().trim());
+			}
+			catch (NumberFormatException e) {
+				// ignore
+			}
+		}
+		return null;
+	}
+	
+	public Snapshot snapshot() {
+		Map<Integer, Long> errors = new TreeMap<Integer, Long>();
+		for (Map.Entry<Integer, LongAdder> entry : this.errors.entrySet()) {
+			errors.put(entry.getKey(), entry.getValue().sum());
+		}
+		Map<Phase, RESTHistogram.Snapshot> latencies = new TreeMap<Phase, RESTHistogram.Snapshot>();
+		for (Phase phase : Phase.values()) {
+			latencies.put(phase, this.latencies[phase.ordinal()].snapshot());
+		}
+		return new Snapshot(calls.sum(), inFlight.sum(), requestBytes.sum(), responseBytes.sum(), errors, latencies);
+	}
+	
+	public void reset() {
+		calls.reset();
+		requestBytes.reset();
+		responseBytes.reset();
+		errors.clear();
+		for (RESTHistogram histogram : latencies) {
+			histogram.reset();
+		}
+	}
+	
+	public static class Snapshot {
+		private long calls, inFlight, requestBytes, responseBytes;
+		private Map<Integer, Long> errors;
+		private Map<Phase, RESTHistogram.Snapshot> latencies;
+		
+		Snapshot(long calls, long inFlight, long requestBytes, long responseBytes, Map<Integer, Long> errors, Map<Phase, RESTHistogram.Snapshot> latencies) {
+			this.calls = calls;
+			this.inFlight = inFlight;
+			this.requestBytes = requestBytes;
+			this.responseBytes = responseBytes;
+			this.errors = errors;
+			this.latencies = latencies;
+		}
+		public long getCalls() {
+			return calls;
+		}
+		public long getInFlight() {
+			return inFlight;
+		}
+		// the total of the known request sizes (as indicated by the content length)
+		public long getRequestBytes() {
+			return requestBytes;
+		}
+		// the total of the known response sizes, streamed responses are not included
+		public long getResponseBytes() {
+			return responseBytes;
+		}
+		// the amount of errors per http status code
+		public Map<Integer, Long> getErrors() {
+			return errors;
+		}
+		public Map<Phase, RESTHistogram.Snapshot> getLatencies() {
+			return latencies;
+		}
+		public RESTHistogram.Snapshot getLatency(Phase phase) {
+			return latencies.get(phase);
+		}
+		@Override
+		public String toString() {
+			return "calls=" + calls + ", inFlight=" + inFlight + ", errors=" + errors + ", requestBytes=" + requestBytes + ", responseBytes=" + responseBytes + ", latencies=" + latencies;
+		}
+	}
+}
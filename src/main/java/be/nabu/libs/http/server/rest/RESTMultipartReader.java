@@ -0,0 +1,356 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import be.nabu.libs.http.HTTPException;
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.impl.MimeHeader;
+
+/**
+ * Parses a multipart/form-data body one part at a time as it is read from the request, the content of a part is never read before it is asked for.
+ * Moving to the next part skips whatever is left of the current one.
+ * Parts can be buffered in which case anything above the threshold is written to a temporary file, closing the reader removes those files.
+ */
+class RESTMultipartReader implements Iterator<RESTFormPart>, AutoCloseable {
+
+	private static final Charset ASCII = Charset.forName("ASCII");
+	// the headers of a part are always kept in memory so they are limited
+	private static final int MAX_HEADER_SIZE = 16 * 1024;
+	
+	private InputStream input;
+	private byte [] delimiter;
+	private byte [] buffer;
+	private int position, limit;
+	private boolean eof, finished;
+	private PartStream current;
+	private RESTFormPart next;
+	private List<File> files = new ArrayList<File>();
+	// the amount of bytes buffered so far (in memory and on disk)
+	private long total;
+	
+	RESTMultipartReader(InputStream input, String boundary) {
+		this.input = input;
+		this.delimiter = ("\r\n--" + boundary).getBytes(ASCII);
+		this.buffer = new byte[Math.max(8192, delimiter.length * 4)];
+		// the first delimiter is usually not preceded by a line feed
+		buffer[limit++] = '\r';
+		buffer[limit++] = '\n';
+	}
+	
+	/**
+	 * The boundary parameter of the content type
+	 */
+	static String getBoundary(String contentType) {
+		if (contentType != null) {
+			for (String parameter : contentType.split(";")) {
+				String [] parts = parameter.split("=", 2);
+				if (parts.length == 2 && parts[0].trim().equalsIgnoreCase("boundary")) {
+					String boundary = parts[1].trim();
+					if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+						boundary = boundary.substring(1, boundary.length() - 1);
+					}
+					if (!boundary.isEmpty()) {
+						return boundary;
+					}
+				}
+			}
+		}
+		throw new HTTPException(400, "No boundary found for the multipart content");
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if (next == null && !finished) {
+			try {
+				// skip the remainder of the current part or the preamble
+				if (current == null) {
+					current = new PartStream();
+				}
+				byte [] skip = new byte[8192];
+				while (current.read(skip, 0, skip.length) >= 0) {
+					// skip
+				}
+				if (!finished) {
+					current = new PartStream();
+					next = new RESTFormPart(readHeaders(), current);
+				}
+			}
+			catch (IOException e) {
+				throw new HTTPException(400, e);
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public RESTFormPart next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		RESTFormPart result = next;
+		next = null;
+		return result;
+	}
+	
+	/**
+	 * Reads all the (remaining) parts, parts that are larger than the threshold are written to a temporary file in the given directory (the default temporary directory if null)
+	 * A request with more than the maximum amount of parts or more than the maximum amount of content is rejected
+	 */
+	Map<String, List<RESTFormPart>> readAll(int threshold, File directory, int maxParts, long maxSize) throws IOException {
+		Map<String, List<RESTFormPart>> parts = new LinkedHashMap<String, List<RESTFormPart>>();
+		int count = 0;
+		while (hasNext()) {
+			if (++count > maxParts) {
+				throw new HTTPException(413, "The multipart request contains more than " + maxParts + " parts");
+			}
+			RESTFormPart part = next();
+			buffer(part, threshold, directory, maxSize);
+			List<RESTFormPart> list = parts.get(part.getName());
+			if (list == null) {
+				list = new ArrayList<RESTFormPart>();
+				parts.put(part.getName(), list);
+			}
+			list.add(part);
+		}
+		return parts;
+	}
+	
+	private void buffer(RESTFormPart part, int threshold, File directory, long maxSize) throws IOException {
+		InputStream stream = part.getInputStream();
+		ByteArrayOutputStream memory = new ByteArrayOutputStream();
+		byte [] bytes = new byte[8192];
+		int read;
+		while ((read = stream.read(bytes)) >= 0) {
+			count(read, maxSize);
+			memory.write(bytes, 0, read);
+			if (memory.size() > threshold) {
+				File file = File.createTempFile("rest-upload-", ".part", directory);
+				files.add(file);
+				OutputStream output = new FileOutputStream(file);
+				try {
+					memory.writeTo(output);
+					memory = null;
+					while ((read = stream.read(bytes)) >= 0) {
+						count(read, maxSize);
+						output.write(bytes, 0, read);
+					}
+				}
+				finally {
+					output.close();
+				}
+				part.setFile(file);
+				return;
+			}
+		}
+		part.setContent(memory.toByteArray());
+	}
+	
+	private void count(int read, long maxSize) {
+		total += read;
+		if (total > maxSize) {
+			throw new HTTPException(413, "The multipart request contains more than " + maxSize + " bytes");
+		}
+	}
+	
+	/**
+	 * Makes sure a buffered part is in a temporary file, the file is removed with the others when the reader is closed
+	 */
+	File toFile(RESTFormPart part, File directory) throws IOException {
+		if (part.getFile() == null) {
+			File file = File.createTempFile("rest-upload-", ".part", directory);
+			files.add(file);
+			InputStream input = part.getInputStream();
+			OutputStream output = new FileOutputStream(file);
+			try {
+				byte [] bytes = new byte[8192];
+				int read;
+				while ((read = input.read(bytes)) >= 0) {
+					output.write(bytes, 0, read);
+				}
+			}
+			finally {
+				output.close();
+			}
+			part.setFile(file);
+		}
+		return part.getFile();
+	}
+	
+	private Header [] readHeaders() throws IOException {
+		List<Header> headers = new ArrayList<Header>();
+		int total = 0;
+		while (true) {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int read;
+			while ((read = readByte()) != '\n') {
+				if (read < 0) {
+					throw new HTTPException(400, "Unexpected end of the multipart headers");
+				}
+				else if (++total > MAX_HEADER_SIZE) {
+					throw new HTTPException(400, "The multipart headers are too large");
+				}
+				line.write(read);
+			}
+			// browsers send file names as utf-8
+			String value = new String(line.toByteArray(), RESTBindings.UTF8).replaceAll("\r$", "");
+			if (value.isEmpty()) {
+				return headers.toArray(new Header[headers.size()]);
+			}
+			int index = value.indexOf(':');
+			if (index > 0) {
+				headers.add(new MimeHeader(value.substring(0, index).trim(), value.substring(index + 1).trim()));
+			}
+		}
+	}
+	
+	// what follows a delimiter is either "--" (the end) or a line feed, optionally preceded by whitespace
+	private void readDelimiterEnd() throws IOException {
+		int first = readByte();
+		if (first == '-' && readByte() == '-') {
+			finished = true;
+			return;
+		}
+		int read = first;
+		while (read == ' ' || read == '\t') {
+			read = readByte();
+		}
+		if (read == '\r') {
+			read = readByte();
+		}
+		if (read != '\n') {
+			throw new HTTPException(400, "Invalid multipart delimiter");
+		}
+	}
+	
+	private int readByte() throws IOException {
+		if (position == limit && !fill(1)) {
+			return -1;
+		}
+		return buffer[position++] & 0xff;
+	}
+	
+	// makes sure at least the given amount of bytes are available unless the input is exhausted
+	private boolean fill(int needed) throws IOException {
+		if (limit - position >= needed) {
+			return true;
+		}
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		while (limit < needed && !eof) {
+			int read = input.read(buffer, limit, buffer.length - limit);
+			if (read < 0) {
+				eof = true;
+			}
+			else {
+				limit += read;
+			}
+		}
+		return limit - position >= needed;
+	}
+	
+	private int indexOfDelimiter() {
+		outer: for (int i = position; i <= limit - delimiter.length; i++) {
+			for (int j = 0; j < delimiter.length; j++) {
+				if (buffer[i + j] != delimiter[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			input.close();
+		}
+		finally {
+			for (File file : files) {
+				file.delete();
+			}
+			files.clear();
+		}
+	}
+	
+	private class PartStream extends InputStream {
+		private boolean done;
+		
+		@Override
+		public int read() throws IOException {
+			byte [] single = new byte[1];
+			int read = read(single, 0, 1);
+			return read < 0 ? -1 : single[0] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (done) {
+				return -1;
+			}
+			else if (length == 0) {
+				return 0;
+			}
+			fill(delimiter.length);
+			int index = indexOfDelimiter();
+			int available;
+			if (index == position) {
+				done = true;
+				position += delimiter.length;
+				readDelimiterEnd();
+				return -1;
+			}
+			else if (index > position) {
+				available = index - position;
+			}
+			else if (eof) {
+				throw new HTTPException(400, "Unexpected end of the multipart content");
+			}
+			else {
+				// the end of the buffer might contain the start of the delimiter
+				available = limit - position - delimiter.length + 1;
+			}
+			int read = Math.min(length, available);
+			System.arraycopy(buffer, position, bytes, offset, read);
+			position += read;
+			return read;
+		}
+		
+		@Override
+		public void close() {
+			// the remainder is skipped when moving to the next part
+		}
+	}
+}
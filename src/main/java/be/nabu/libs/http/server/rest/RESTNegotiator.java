@@ -0,0 +1,218 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import be.nabu.libs.http.HTTPException;
+import be.nabu.utils.mime.api.Header;
+
+/**
+ * Selects the best media type from a fixed list of available types based on an Accept header (with q-values, wildcards and parameters).
+ * The available types are parsed once, the result is cached per distinct Accept header as clients tend to send only a handful of distinct headers.
+ */
+public class RESTNegotiator {
+
+	private static final String [] NONE = new String[0];
+	
+	private String [] available;
+	private MediaRange [] ranges;
+	// the best candidates per accept header, they are in the order of the available types
+	private BoundedCache<String, String[]> negotiated = new BoundedCache<String, String[]>(64);
+	
+	public RESTNegotiator(String...available) {
+		this.available = new String[available.length];
+		this.ranges = new MediaRange[available.length];
+		for (int i = 0; i < available.length; i++) {
+			this.ranges[i] = MediaRange.parse(available[i]);
+			this.available[i] = available[i].trim();
+		}
+	}
+	
+	/**
+	 * Returns the available types that are most acceptable (they share the highest quality), an empty array if none are acceptable
+	 */
+	public String [] negotiate(String accept) {
+		if (accept == null || accept.trim().isEmpty()) {
+			return available;
+		}
+		String [] result = negotiated.get(accept);
+		if (result == null) {
+			result = calculate(accept);
+			negotiated.put(accept, result);
+		}
+		return result;
+	}
+	
+	private String [] calculate(String accept) {
+		List<MediaRange> accepted = new ArrayList<MediaRange>();
+		for (String part : accept.split(",")) {
+			if (!part.trim().isEmpty()) {
+				accepted.add(MediaRange.parse(part));
+			}
+		}
+		double best = 0;
+		List<String> candidates = new ArrayList<String>();
+		for (int i = 0; i < ranges.length; i++) {
+			double quality = getQuality(ranges[i], accepted);
+			if (quality > best) {
+				best = quality;
+				candidates.clear();
+			}
+			if (quality > 0 && quality == best) {
+				candidates.add(available[i]);
+			}
+		}
+		return candidates.isEmpty() ? NONE : candidates.toArray(new String[candidates.size()]);
+	}
+	
+	// the quality of the most specific accepted range that matches the type
+	private static double getQuality(MediaRange type, List<MediaRange> accepted) {
+		int specificity = -1;
+		double quality = 0;
+		for (MediaRange range : accepted) {
+			if (range.includes(type) && range.getSpecificity() > specificity) {
+				specificity = range.getSpecificity();
+				quality = range.quality;
+			}
+		}
+		return quality;
+	}
+	
+	/**
+	 * Returns the first available type that includes the given content type (parameters are ignored), null if there is none
+	 */
+	public String match(String contentType) {
+		MediaRange range = MediaRange.parse(contentType);
+		for (int i = 0; i < ranges.length; i++) {
+			if (ranges[i].includes(range)) {
+				return available[i];
+			}
+		}
+		return null;
+	}
+	
+	public String [] getAvailable() {
+		return available;
+	}
+	
+	/**
+	 * Strips the parameters from a content type and lower cases it
+	 */
+	public static String getBaseType(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		int index = contentType.indexOf(';');
+		return (index < 0 ? contentType : contentType.substring(0, index)).trim().toLowerCase(Locale.ROOT);
+	}
+	
+	/**
+	 * The parameters of a header value (e.g. the q-values in an Accept header) are parsed as comments, this restores the original value
+	 */
+	public static String getFullValue(Header header) {
+		if (header == null) {
+			return null;
+		}
+		String [] comments = header.getComments();
+		if (comments == null || comments.length == 0) {
+			return header.getValue();
+		}
+		StringBuilder builder = new StringBuilder(header.getValue());
+		for (String comment : comments) {
+			builder.append("; ").append(comment);
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * The charset parameter of a content type, null if there is none
+	 */
+	public static Charset getCharset(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		for (String parameter : contentType.split(";")) {
+			String [] parts = parameter.split("=", 2);
+			if (parts.length == 2 && parts[0].trim().equalsIgnoreCase("charset")) {
+				try {
+					return Charset.forName(parts[1].trim().replace("\"", ""));
+				}
+				catch (IllegalArgumentException e) {
+					throw new HTTPException(400, "Unsupported charset: " + parts[1].trim());
+				}
+			}
+		}
+		return null;
+	}
+	
+	private static class MediaRange {
+		private String type, subtype;
+		private double quality = 1;
+		private List<String> parameters = new ArrayList<String>();
+		
+		private static MediaRange parse(String value) {
+			MediaRange range = new MediaRange();
+			String [] parts = value.split(";");
+			String base = parts[0].trim().toLowerCase(Locale.ROOT);
+			int index = base.indexOf('/');
+			range.type = index < 0 ? base : base.substring(0, index);
+			// a lone "*" is sent by some older clients
+			range.subtype = index < 0 ? "*" : base.substring(index + 1);
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim().toLowerCase(Locale.ROOT).replaceAll("\\s*=\\s*", "=");
+				if (parameter.startsWith("q=")) {
+					try {
+						range.quality = Double.parseDouble(parameter.substring(2));
+					}
+					catch (NumberFormatException e) {
+						range.quality = 0;
+					}
+				}
+				// the charset does not determine the media type, it is handled by the binding
+				else if (!parameter.isEmpty() && !parameter.startsWith("charset=")) {
+					range.parameters.add(parameter.replace("\"", ""));
+				}
+			}
+			return range;
+		}
+		
+		private boolean includes(MediaRange other) {
+			if (!type.equals("*") && !type.equals(other.type)) {
+				return false;
+			}
+			if (!subtype.equals("*") && !subtype.equals(other.subtype)) {
+				return false;
+			}
+			return other.parameters.containsAll(parameters);
+		}
+		
+		private int getSpecificity() {
+			if (type.equals("*")) {
+				return 0;
+			}
+			else if (subtype.equals("*")) {
+				return 1;
+			}
+			return parameters.isEmpty() ? 2 : 3;
+		}
+	}
+}
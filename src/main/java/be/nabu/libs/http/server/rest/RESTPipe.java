@@ -0,0 +1,163 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A bounded in-memory pipe between the thread that marshals a response and the thread that sends it.
+ * Unlike the PipedInputStream it does not depend on the liveness of the threads involved (server threads are pooled and can change between reads).
+ * A failure on the writing side is rethrown on the reading side so a truncated response is never mistaken for a complete one.
+ * If the reading side is closed (e.g. the client went away), the writing side fails on the next write.
+ */
+class RESTPipe {
+
+	private byte [] buffer;
+	private int start, size;
+	private boolean writerClosed, readerClosed;
+	private Throwable failure;
+	// how long (in ms) either side is allowed to wait for the other side
+	private long timeout;
+
+	private InputStream input = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			byte [] single = new byte[1];
+			int read = read(single, 0, 1);
+			return read < 0 ? -1 : single[0] & 0xff;
+		}
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			return RESTPipe.this.read(bytes, offset, length);
+		}
+		@Override
+		public int available() throws IOException {
+			synchronized(RESTPipe.this) {
+				return size;
+			}
+		}
+		@Override
+		public void close() throws IOException {
+			synchronized(RESTPipe.this) {
+				readerClosed = true;
+				RESTPipe.this.notifyAll();
+			}
+		}
+	};
+
+	private OutputStream output = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			RESTPipe.this.write(bytes, offset, length);
+		}
+		@Override
+		public void close() throws IOException {
+			synchronized(RESTPipe.this) {
+				writerClosed = true;
+				RESTPipe.this.notifyAll();
+			}
+		}
+	};
+
+	RESTPipe(int bufferSize, long timeout) {
+		this.buffer = new byte[bufferSize];
+		this.timeout = timeout;
+	}
+
+	InputStream getInputStream() {
+		return input;
+	}
+
+	OutputStream getOutputStream() {
+		return output;
+	}
+
+	synchronized void fail(Throwable failure) {
+		this.failure = failure;
+		this.writerClosed = true;
+		notifyAll();
+	}
+
+	private synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		long deadline = System.currentTimeMillis() + timeout;
+		while (size == 0) {
+			if (failure != null) {
+				throw new IOException("The response could not be generated", failure);
+			}
+			else if (writerClosed || readerClosed) {
+				return -1;
+			}
+			await(deadline);
+		}
+		int read = Math.min(length, size);
+		int first = Math.min(read, buffer.length - start);
+		System.arraycopy(buffer, start, bytes, offset, first);
+		System.arraycopy(buffer, 0, bytes, offset + first, read - first);
+		start = (start + read) % buffer.length;
+		size -= read;
+		notifyAll();
+		return read;
+	}
+
+	private synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			long deadline = System.currentTimeMillis() + timeout;
+			while (size == buffer.length && !readerClosed) {
+				await(deadline);
+			}
+			if (readerClosed) {
+				throw new IOException("The pipe was closed by the reader");
+			}
+			else if (writerClosed) {
+				throw new IOException("The pipe is closed");
+			}
+			int end = (start + size) % buffer.length;
+			int written = Math.min(length, buffer.length - size);
+			int first = Math.min(written, buffer.length - end);
+			System.arraycopy(bytes, offset, buffer, end, first);
+			System.arraycopy(bytes, offset + first, buffer, 0, written - first);
+			size += written;
+			offset += written;
+			length -= written;
+			notifyAll();
+		}
+	}
+
+	private void await(long deadline) throws IOException {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0) {
+			throw new IOException("Timed out waiting for the other side of the pipe");
+		}
+		try {
+			wait(remaining);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.types.SimpleTypeWrapperFactory;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.SimpleTypeWrapper;
+import be.nabu.libs.types.java.BeanInstance;
+
+/**
+ * A read-only view on a complex content that only exposes the fields selected by a projection, the others are null.
+ * The marshalling is left to the codec so the output is exactly what it would write for the full content minus the unselected fields.
+ * A field that is not selected is never read from the underlying content, so getters (and any lazy loading behind them) are not triggered.
+ */
+public class RESTProjectedContent implements ComplexContent {
+
+	private static SimpleTypeWrapper simpleTypeWrapper = SimpleTypeWrapperFactory.getInstance().getWrapper();
+	
+	private ComplexContent content;
+	private RESTProjection projection;
+	
+	public RESTProjectedContent(ComplexContent content, RESTProjection projection) {
+		this.content = content;
+		this.projection = projection;
+	}
+	
+	@Override
+	public ComplexType getType() {
+		return content.getType();
+	}
+
+	@Override
+	public void set(String path, Object value) {
+		throw new UnsupportedOperationException("A projected content is read-only");
+	}
+
+	@Override
+	public Object get(String path) {
+		// the first part of the path is the field, the rest (an index or a child) applies to its value
+		int index = 0;
+		while (index < path.length() && path.charAt(index) != '/' && path.charAt(index) != '[') {
+			index++;
+		}
+		String name = path.substring(0, index);
+		if (!projection.isSelected(name)) {
+			return null;
+		}
+		RESTProjection child = projection.get(name);
+		if (index < path.length() && path.charAt(index) == '/') {
+			Object value = project(content.get(name), child);
+			return value instanceof ComplexContent ? ((ComplexContent) value).get(path.substring(index + 1)) : null;
+		}
+		return project(content.get(path), child);
+	}
+	
+	/**
+	 * Applies the projection to any value, lists and maps are projected per element. A null projection returns the value as is.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static Object project(Object value, RESTProjection projection) {
+		if (value == null || projection == null) {
+			return value;
+		}
+		else if (value instanceof ComplexContent) {
+			return new RESTProjectedContent((ComplexContent) value, projection);
+		}
+		else if (value instanceof Map) {
+			Map<Object, Object> projected = new LinkedHashMap<Object, Object>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				String name = entry.getKey().toString();
+				if (projection.isSelected(name)) {
+					projected.put(entry.getKey(), project(entry.getValue(), projection.get(name)));
+				}
+			}
+			return projected;
+		}
+		else if (value instanceof Collection) {
+			List<Object> projected = new ArrayList<Object>(((Collection<?>) value).size());
+			for (Object child : (Collection<?>) value) {
+				projected.add(project(child, projection));
+			}
+			return projected;
+		}
+		// primitive arrays (like byte[]) are simple values
+		else if (value instanceof Object[]) {
+			List<Object> projected = new ArrayList<Object>(Array.getLength(value));
+			for (Object child : (Object[]) value) {
+				projected.add(project(child, projection));
+			}
+			return projected;
+		}
+		else if (!value.getClass().isArray() && simpleTypeWrapper.wrap(value.getClass()) == null) {
+			return new RESTProjectedContent(new BeanInstance(value), projection);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A selection of fields, parsed from a selector like "id,name,address(street,city),orders/total".
+ * Fields are separated by a comma, a slash selects a child and parentheses select several children, "*" selects all the fields on its level.
+ * A selected field without children is written entirely.
+ * The parsed trees are immutable and cached per selector, clients tend to use a handful of distinct selectors.
+ */
+public class RESTProjection {
+
+	private static BoundedCache<String, RESTProjection> projections = new BoundedCache<String, RESTProjection>(256);
+	
+	// a null value means the field is written entirely
+	private Map<String, RESTProjection> children = new LinkedHashMap<String, RESTProjection>();
+	private boolean all;
+	
+	private RESTProjection() {
+		// use parse()
+	}
+	
+	public static RESTProjection parse(String selector) throws ParseException {
+		RESTProjection projection = projections.get(selector);
+		if (projection == null) {
+			projection = new RESTProjection();
+			// field names don't contain whitespace
+			String stripped = selector.replaceAll("\\s+", "");
+			int end = projection.parse(stripped, 0);
+			if (end < stripped.length()) {
+				throw new ParseException("Unexpected '" + stripped.charAt(end) + "' in the field selection", end);
+			}
+			projections.put(selector, projection);
+		}
+		return projection;
+	}
+	
+	// parses a comma separated list of fields until the end or an unmatched closing parenthesis
+	private int parse(String selector, int offset) throws ParseException {
+		while (true) {
+			RESTProjection parent = this;
+			String name = null;
+			int start = offset;
+			while (offset < selector.length()) {
+				char character = selector.charAt(offset);
+				if (character == '/' || character == ',' || character == '(' || character == ')') {
+					String current = selector.substring(start, offset);
+					if (current.isEmpty()) {
+						throw new ParseException("Missing field name in the field selection", offset);
+					}
+					else if (character != '/') {
+						name = current;
+						break;
+					}
+					parent = parent.child(current, offset);
+					start = offset + 1;
+				}
+				offset++;
+			}
+			if (name == null) {
+				name = selector.substring(start, offset);
+				if (name.isEmpty()) {
+					throw new ParseException("Missing field name in the field selection", offset);
+				}
+			}
+			if (offset < selector.length() && selector.charAt(offset) == '(') {
+				offset = parent.child(name, offset).parse(selector, offset + 1);
+				if (offset >= selector.length() || selector.charAt(offset) != ')') {
+					throw new ParseException("Missing ')' in the field selection", offset);
+				}
+				offset++;
+			}
+			else {
+				parent.select(name);
+			}
+			if (offset < selector.length() && selector.charAt(offset) == ',') {
+				offset++;
+			}
+			else {
+				return offset;
+			}
+		}
+	}
+	
+	// a nested selection, unless the field was already selected entirely
+	private RESTProjection child(String name, int offset) throws ParseException {
+		if (name.equals("*")) {
+			throw new ParseException("Can not select fields within '*'", offset);
+		}
+		RESTProjection child = children.get(name);
+		if (child == null && !children.containsKey(name)) {
+			child = new RESTProjection();
+			children.put(name, child);
+		}
+		// selected entirely, the nested selection has no effect
+		else if (child == null) {
+			child = new RESTProjection();
+		}
+		return child;
+	}
+	
+	private void select(String name) {
+		if (name.equals("*")) {
+			all = true;
+		}
+		else {
+			children.put(name, null);
+		}
+	}
+	
+	/**
+	 * Whether the field with the given name should be written
+	 */
+	public boolean isSelected(String name) {
+		return all || children.containsKey(name);
+	}
+	
+	/**
+	 * Whether all the fields are selected entirely, which is the same as no selection
+	 */
+	public boolean isAll() {
+		return all && children.isEmpty();
+	}
+	
+	/**
+	 * The selection within the given field, null if the field should be written entirely
+	 */
+	public RESTProjection get(String name) {
+		return children.get(name);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		if (all) {
+			builder.append('*');
+		}
+		for (Map.Entry<String, RESTProjection> child : children.entrySet()) {
+			if (builder.length() > 0) {
+				builder.append(',');
+			}
+			builder.append(child.getKey());
+			if (child.getValue() != null) {
+				builder.append('(').append(child.getValue()).append(')');
+			}
+		}
+		return builder.toString();
+	}
+}
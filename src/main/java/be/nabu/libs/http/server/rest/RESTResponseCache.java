@@ -0,0 +1,216 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import be.nabu.libs.http.api.HTTPRequest;
+import be.nabu.libs.http.api.HTTPResponse;
+import be.nabu.libs.http.core.DefaultHTTPResponse;
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.MimeUtils;
+import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
+
+/**
+ * Keeps the marshalled responses of a @Cached method.
+ * The etag is a hash of the content so a client that already has the content gets a 304 without the method being invoked.
+ */
+public class RESTResponseCache {
+
+	// ends the path values in the key, every value is length prefixed (or "-" if missing) so a value can never be mistaken for this
+	private static final char END_OF_PATH = ';';
+	
+	private Cached cached;
+	private BoundedCache<String, Entry> entries;
+	
+	RESTResponseCache(Cached cached) {
+		this.cached = cached;
+		this.entries = new BoundedCache<String, Entry>(cached.maxEntries());
+	}
+	
+	String getKey(HTTPRequest request, String [] pathValues, Map<String, List<String>> queryValues, String responseType, RESTProjection projection) {
+		StringBuilder builder = getPrefix(pathValues);
+		for (String query : cached.query()) {
+			List<String> list = queryValues == null ? null : queryValues.get(query);
+			if (list == null) {
+				append(builder, null);
+			}
+			else {
+				builder.append(list.size()).append('*');
+				for (String value : list) {
+					append(builder, value);
+				}
+			}
+		}
+		for (String name : cached.headers()) {
+			Header header = MimeUtils.getHeader(name, request.getContent().getHeaders());
+			append(builder, header == null ? null : RESTNegotiator.getFullValue(header));
+		}
+		append(builder, responseType);
+		// different field selections are different responses
+		append(builder, projection == null ? null : projection.toString());
+		return builder.toString();
+	}
+	
+	private static StringBuilder getPrefix(String...pathValues) {
+		StringBuilder builder = new StringBuilder();
+		for (String pathValue : pathValues) {
+			append(builder, pathValue);
+		}
+		return builder.append(END_OF_PATH);
+	}
+	
+	private static void append(StringBuilder builder, String value) {
+		if (value == null) {
+			builder.append('-');
+		}
+		else {
+			builder.append(value.length()).append(':').append(value);
+		}
+	}
+	
+	Entry get(String key) {
+		Entry entry = entries.get(key);
+		if (entry != null && entry.expires < System.currentTimeMillis()) {
+			entries.remove(key);
+			return null;
+		}
+		return entry;
+	}
+	
+	Entry put(String key, String contentType, byte [] content) {
+		Entry entry = new Entry(contentType, content, System.currentTimeMillis() + cached.ttl());
+		entries.put(key, entry);
+		return entry;
+	}
+	
+	/**
+	 * Removes all the entries
+	 */
+	public void invalidate() {
+		entries.clear();
+	}
+	
+	/**
+	 * Removes all the entries for the given path values (in the order they appear in the path), regardless of the query, headers and response type
+	 */
+	public void invalidate(String...pathValues) {
+		final String prefix = getPrefix(pathValues).toString();
+		entries.removeIf(new Predicate<String>() {
+			@Override
+			public boolean test(String key) {
+				return key.startsWith(prefix);
+			}
+		});
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	HTTPResponse respond(RESTHandler handler, HTTPRequest request, Entry entry) {
+		String cacheControl = cached.maxAge() > 0 ? "max-age=" + cached.maxAge() : "no-cache";
+		StringBuilder vary = new StringBuilder("Accept");
+		for (String header : cached.headers()) {
+			vary.append(", ").append(header);
+		}
+		String encoding = handler.getCompression().getEncoding(RESTHandler.getAcceptEncoding(request), entry.contentType, (long) entry.content.length);
+		// each representation has its own etag
+		String etag = encoding == null ? entry.etag : entry.etag.substring(0, entry.etag.length() - 1) + "-" + encoding + "\"";
+		Header ifNoneMatch = MimeUtils.getHeader("If-None-Match", request.getContent().getHeaders());
+		if (ifNoneMatch != null && matches(ifNoneMatch.getValue(), etag)) {
+			// the 304 carries the same vary as the response it validates
+			List<Header> headers = new ArrayList<Header>();
+			headers.add(new MimeHeader("ETag", etag));
+			headers.add(new MimeHeader("Cache-Control", cacheControl));
+			headers.add(new MimeHeader("Vary", vary.toString()));
+			if (handler.getCompression().isEnabled()) {
+				headers.add(new MimeHeader("Vary", "Accept-Encoding"));
+			}
+			return new DefaultHTTPResponse(request, 304, "Not Modified", new PlainMimeEmptyPart(null, headers.toArray(new Header[headers.size()])));
+		}
+		return handler.newEncodedResponse(request, entry.contentType, encoding == null ? entry.content : entry.getEncoded(handler.getCompression(), encoding), encoding,
+			new MimeHeader("ETag", etag),
+			new MimeHeader("Cache-Control", cacheControl),
+			new MimeHeader("Vary", vary.toString())
+		);
+	}
+	
+	private static boolean matches(String ifNoneMatch, String etag) {
+		for (String part : ifNoneMatch.split(",")) {
+			String tag = part.trim();
+			// if-none-match uses the weak comparison
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public Cached getCached() {
+		return cached;
+	}
+	
+	static class Entry {
+		private String contentType, etag;
+		private byte [] content;
+		private long expires;
+		// the compressed versions of the content, they are created when first requested
+		private Map<String, byte[]> encoded = new ConcurrentHashMap<String, byte[]>();
+		
+		Entry(String contentType, byte [] content, long expires) {
+			this.contentType = contentType;
+			this.content = content;
+			this.expires = expires;
+			this.etag = "\"" + hash(content) + "\"";
+		}
+		
+		byte [] getEncoded(RESTCompression compression, String encoding) {
+			byte [] result = encoded.get(encoding);
+			if (result == null) {
+				result = compression.compress(content, encoding);
+				encoded.put(encoding, result);
+			}
+			return result;
+		}
+		
+		private static String hash(byte [] content) {
+			try {
+				byte [] digest = MessageDigest.getInstance("MD5").digest(content);
+				StringBuilder builder = new StringBuilder();
+				for (byte single : digest) {
+					builder.append(String.format("%02x", single & 0xff));
+				}
+				return builder.toString();
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import be.nabu.libs.authentication.api.RoleHandler;
+import be.nabu.libs.authentication.api.Token;
+
+/**
+ * Caches the decisions of a role handler for a limited time, useful if the roles are looked up remotely.
+ * The decisions are cached per token and role, the token is compared with its own equals() so a new token (e.g. after a new login) is never served the decision of another one.
+ * A change in the roles of a user is picked up once the entry expires.
+ */
+public class RESTRoleCache implements RoleHandler {
+
+	private RoleHandler roleHandler;
+	private long ttl;
+	private BoundedCache<Key, Decision> decisions;
+
+	/**
+	 * The ttl is in ms
+	 */
+	public RESTRoleCache(RoleHandler roleHandler, long ttl, int maxEntries) {
+		this.roleHandler = roleHandler;
+		this.ttl = ttl;
+		this.decisions = new BoundedCache<Key, Decision>(maxEntries);
+	}
+
+	@Override
+	public boolean hasRole(Token token, String role) {
+		// nothing worth caching
+		if (token == null) {
+			return roleHandler.hasRole(token, role);
+		}
+		Key key = new Key(token, role);
+		long now = System.currentTimeMillis();
+		Decision decision = decisions.get(key);
+		if (decision == null || decision.expires < now) {
+			decision = new Decision(roleHandler.hasRole(token, role), now + ttl);
+			decisions.put(key, decision);
+		}
+		return decision.allowed;
+	}
+	
+	public void invalidate() {
+		decisions.clear();
+	}
+	
+	public int size() {
+		return decisions.size();
+	}
+	
+	private static class Key {
+		private Token token;
+		private String role;
+		
+		Key(Token token, String role) {
+			this.token = token;
+			this.role = role;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof Key && token.equals(((Key) object).token)
+				&& (role == null ? ((Key) object).role == null : role.equals(((Key) object).role));
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * token.hashCode() + (role == null ? 0 : role.hashCode());
+		}
+	}
+	
+	private static class Decision {
+		private boolean allowed;
+		private long expires;
+		
+		Decision(boolean allowed, long expires) {
+			this.allowed = allowed;
+			this.expires = expires;
+		}
+	}
+}
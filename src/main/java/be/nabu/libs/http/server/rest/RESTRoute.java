@@ -0,0 +1,111 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+/**
+ * Everything the handler needs to know about an exposed method that would otherwise be read from the annotations, along with an invoker that calls the method directly.
+ * The path, produces and consumes are resolved as they would be at runtime (e.g. class level @Produces are applied).
+ */
+public class RESTRoute {
+
+	/**
+	 * Where the value of a parameter comes from, anything without an annotation is resolved based on its type (the body, the request,...)
+	 */
+	public enum Source {
+		PATH,
+		QUERY,
+		HEADER,
+		FORM,
+		SUSPENDED,
+		TYPE
+	}
+	
+	/**
+	 * Calls the method without reflection, exceptions thrown by the method are passed as is
+	 */
+	public interface Invoker {
+		public Object invoke(Object instance, Object [] arguments) throws Throwable;
+	}
+	
+	public static class Parameter {
+		private Source source;
+		private String name, defaultValue;
+		
+		public Parameter(Source source, String name, String defaultValue) {
+			this.source = source;
+			this.name = name;
+			this.defaultValue = defaultValue;
+		}
+		public Source getSource() {
+			return source;
+		}
+		public String getName() {
+			return name;
+		}
+		public String getDefaultValue() {
+			return defaultValue;
+		}
+	}
+	
+	private String name, path;
+	private Class<?> [] parameterTypes;
+	private int verbs;
+	private String [] produces, consumes;
+	private Parameter [] parameters;
+	private Invoker invoker;
+	
+	public RESTRoute(String name, Class<?> [] parameterTypes, int verbs, String path, String [] produces, String [] consumes, Parameter [] parameters, Invoker invoker) {
+		this.name = name;
+		this.parameterTypes = parameterTypes;
+		this.verbs = verbs;
+		this.path = path;
+		this.produces = produces;
+		this.consumes = consumes;
+		this.parameters = parameters;
+		this.invoker = invoker;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	public Class<?>[] getParameterTypes() {
+		return parameterTypes;
+	}
+	/**
+	 * The bitmask of the verbs, see RESTVerb
+	 */
+	public int getVerbs() {
+		return verbs;
+	}
+	public String getPath() {
+		return path;
+	}
+	public String[] getProduces() {
+		return produces;
+	}
+	public String[] getConsumes() {
+		return consumes;
+	}
+	public Parameter[] getParameters() {
+		return parameters;
+	}
+	public Invoker getInvoker() {
+		return invoker;
+	}
+}
@@ -0,0 +1,36 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.util.List;
+
+/**
+ * The routes of a rest class as generated at compile time by the annotation processor (see the processor module).
+ * Implementations are registered as a service, if one is found for a rest class it is used instead of analyzing the class through reflection.
+ */
+public interface RESTRouteTable {
+	/**
+	 * The class the routes belong to
+	 */
+	public Class<?> getRestClass();
+	/**
+	 * The routes of all the exposed methods of the class
+	 */
+	public List<RESTRoute> getRoutes();
+}
@@ -0,0 +1,316 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A segment trie per http verb that is built once when the rest class is analyzed.
+ * Literal segments are resolved with a map lookup, segments containing parameters are matched against a precompiled pattern.
+ * Literal segments take precedence over "{name}" segments which in turn take precedence over "{name:regex}" segments.
+ */
+public class RESTRouter {
+
+	private Map<RESTVerb, Node> roots = new EnumMap<RESTVerb, Node>(RESTVerb.class);
+
+	/**
+	 * Returns the method that was already registered for the same verb and an equivalent path (if any), in which case the new method is not added
+	 */
+	public RESTMethod add(RESTVerb verb, String path, RESTMethod method) {
+		Node node = roots.get(verb);
+		if (node == null) {
+			node = new Node();
+			roots.put(verb, node);
+		}
+		for (String segment : split(path)) {
+			node = node.child(segment);
+		}
+		// first come first serve, previously this depended on the iteration order of the methods
+		if (node.method == null) {
+			node.method = method;
+			return null;
+		}
+		return node.method == method ? null : node.method;
+	}
+
+	public Match route(RESTVerb verb, String path) {
+		Node root = roots.get(verb);
+		if (root == null) {
+			return null;
+		}
+		List<String> values = new ArrayList<String>();
+		Node node = match(root, segments(path), 0, values);
+		if (node == null) {
+			return null;
+		}
+		return new Match(node.method, values.toArray(new String[values.size()]));
+	}
+
+	/**
+	 * The verbs that have a route for the given path, HEAD is implied by GET and OPTIONS is implied by any route
+	 */
+	public EnumSet<RESTVerb> getAllowed(String path) {
+		EnumSet<RESTVerb> allowed = EnumSet.noneOf(RESTVerb.class);
+		String [] segments = segments(path);
+		for (Map.Entry<RESTVerb, Node> entry : roots.entrySet()) {
+			if (match(entry.getValue(), segments, 0, new ArrayList<String>()) != null) {
+				allowed.add(entry.getKey());
+			}
+		}
+		if (allowed.contains(RESTVerb.GET)) {
+			allowed.add(RESTVerb.HEAD);
+		}
+		if (!allowed.isEmpty()) {
+			allowed.add(RESTVerb.OPTIONS);
+		}
+		return allowed;
+	}
+
+	private Node match(Node node, String[] segments, int index, List<String> values) {
+		if (index == segments.length) {
+			return node.method == null ? null : node;
+		}
+		Node literal = node.literals.get(segments[index]);
+		if (literal != null) {
+			Node result = match(literal, segments, index + 1, values);
+			if (result != null) {
+				return result;
+			}
+		}
+		for (PatternNode child : node.patterns) {
+			if (!child.spansSegments) {
+				Node result = match(child, segments[index], segments, index + 1, values);
+				if (result != null) {
+					return result;
+				}
+			}
+			else {
+				// a custom regex might match across segments, e.g. "{path:.+}"
+				StringBuilder builder = new StringBuilder();
+				for (int i = index; i < segments.length; i++) {
+					if (i > index) {
+						builder.append('/');
+					}
+					builder.append(segments[i]);
+					Node result = match(child, builder.toString(), segments, i + 1, values);
+					if (result != null) {
+						return result;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	private Node match(PatternNode child, String value, String[] segments, int next, List<String> values) {
+		Matcher matcher = child.pattern.matcher(value);
+		if (!matcher.matches()) {
+			return null;
+		}
+		int size = values.size();
+		for (int group : child.groups) {
+			values.add(matcher.group(group));
+		}
+		Node result = match(child, segments, next, values);
+		// backtrack
+		if (result == null) {
+			while (values.size() > size) {
+				values.remove(values.size() - 1);
+			}
+		}
+		return result;
+	}
+
+	private static String[] segments(String path) {
+		if (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		return path.split("/", -1);
+	}
+
+	/**
+	 * Splits a path template on "/" but not inside a "{...}" block as the regex may contain a "/"
+	 */
+	static List<String> split(String path) {
+		List<String> segments = new ArrayList<String>();
+		if (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < path.length(); i++) {
+			char character = path.charAt(i);
+			if (character == '{') {
+				depth++;
+			}
+			else if (character == '}') {
+				depth--;
+			}
+			else if (character == '/' && depth == 0) {
+				segments.add(path.substring(start, i));
+				start = i + 1;
+			}
+		}
+		segments.add(path.substring(start));
+		return segments;
+	}
+
+	private static class Node {
+		Map<String, Node> literals = new HashMap<String, Node>();
+		List<PatternNode> patterns = new ArrayList<PatternNode>();
+		RESTMethod method;
+
+		Node child(String segment) {
+			if (segment.indexOf('{') < 0) {
+				Node child = literals.get(segment);
+				if (child == null) {
+					child = new Node();
+					literals.put(segment, child);
+				}
+				return child;
+			}
+			PatternNode child = new PatternNode(segment);
+			// "{id}" and "{name}" match the same values so they share a node, this is how conflicts between them are detected
+			for (PatternNode existing : patterns) {
+				if (existing.pattern.pattern().equals(child.pattern.pattern())) {
+					return existing;
+				}
+			}
+			// keep the simple parameters in front of the custom regexes
+			int index = patterns.size();
+			if (!child.spansSegments) {
+				while (index > 0 && patterns.get(index - 1).spansSegments) {
+					index--;
+				}
+			}
+			patterns.add(index, child);
+			return child;
+		}
+	}
+
+	private static class PatternNode extends Node {
+		Pattern pattern;
+		int [] groups;
+		boolean spansSegments;
+
+		private PatternNode(String template) {
+			PathTemplate compiled = new PathTemplate(template);
+			this.pattern = compiled.getPattern();
+			this.groups = compiled.getGroups();
+			this.spansSegments = compiled.isCustom();
+		}
+	}
+
+	/**
+	 * A path template (or a single segment of it) compiled into a pattern with one capturing group per parameter.
+	 * The syntax for a more controlled match is "{name:.+}" for example which will match anything.
+	 */
+	static class PathTemplate {
+		private Pattern pattern;
+		private List<String> names = new ArrayList<String>();
+		private int [] groups;
+		private boolean custom;
+
+		PathTemplate(String template) {
+			StringBuilder regex = new StringBuilder();
+			List<Integer> groups = new ArrayList<Integer>();
+			int group = 1;
+			int index = 0;
+			while (index < template.length()) {
+				int start = template.indexOf('{', index);
+				if (start < 0) {
+					regex.append(Pattern.quote(template.substring(index)));
+					break;
+				}
+				if (start > index) {
+					regex.append(Pattern.quote(template.substring(index, start)));
+				}
+				int end = closing(template, start);
+				String parameter = template.substring(start + 1, end);
+				int separator = parameter.indexOf(':');
+				String name = (separator < 0 ? parameter : parameter.substring(0, separator)).trim();
+				String parameterRegex = separator < 0 ? "[^/]+" : parameter.substring(separator + 1).trim();
+				if (separator >= 0) {
+					custom = true;
+				}
+				regex.append("(").append(parameterRegex).append(")");
+				groups.add(group);
+				// skip any groups the custom regex itself might contain
+				group += 1 + Pattern.compile(parameterRegex).matcher("").groupCount();
+				names.add(name);
+				index = end + 1;
+			}
+			this.pattern = Pattern.compile(regex.toString());
+			this.groups = new int[groups.size()];
+			for (int i = 0; i < groups.size(); i++) {
+				this.groups[i] = groups.get(i);
+			}
+		}
+
+		private static int closing(String template, int start) {
+			int depth = 0;
+			for (int i = start; i < template.length(); i++) {
+				if (template.charAt(i) == '{') {
+					depth++;
+				}
+				else if (template.charAt(i) == '}' && --depth == 0) {
+					return i;
+				}
+			}
+			throw new IllegalArgumentException("Unclosed path parameter in: " + template);
+		}
+
+		public Pattern getPattern() {
+			return pattern;
+		}
+		public List<String> getNames() {
+			return names;
+		}
+		public int[] getGroups() {
+			return groups;
+		}
+		// whether any of the parameters has a custom regex
+		public boolean isCustom() {
+			return custom;
+		}
+	}
+
+	public static class Match {
+		private RESTMethod method;
+		private String [] pathValues;
+
+		Match(RESTMethod method, String [] pathValues) {
+			this.method = method;
+			this.pathValues = pathValues;
+		}
+		public RESTMethod getMethod() {
+			return method;
+		}
+		// the values are in the same order as the path parameters of the method
+		public String[] getPathValues() {
+			return pathValues;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.SecurityContext;
+
+import be.nabu.libs.authentication.api.RoleHandler;
+import be.nabu.libs.http.api.HTTPRequest;
+import be.nabu.libs.http.api.server.AuthenticationHeader;
+import be.nabu.libs.http.api.server.SecurityHeader;
+import be.nabu.libs.http.core.HTTPUtils;
+import be.nabu.libs.http.core.ServerHeader;
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.impl.MimeUtils;
+
+/**
+ * The security context is either bound to a single request or delegates to the context of whatever request is active on the current thread.
+ * The authentication and the role decisions are resolved once per request, the resource code and the role checks of the handler share them.
+ */
+class RESTSecurityContext implements SecurityContext {
+
+	private RoleHandler roleHandler;
+	private HTTPRequest request;
+	private ThreadLocal<RESTSecurityContext> scope;
+	private AuthenticationHeader authenticationHeader;
+	private boolean authenticationResolved;
+	private Map<String, Boolean> roles;
+
+	RESTSecurityContext(RoleHandler roleHandler, HTTPRequest request) {
+		this.roleHandler = roleHandler;
+		this.request = request;
+	}
+	
+	RESTSecurityContext(ThreadLocal<RESTSecurityContext> scope) {
+		this.scope = scope;
+	}
+	
+	private RESTSecurityContext getScoped() {
+		RESTSecurityContext context = scope.get();
+		if (context == null) {
+			throw new IllegalStateException("The security context can only be accessed while handling a request");
+		}
+		return context;
+	}
+	
+	private synchronized AuthenticationHeader getAuthenticationHeader() {
+		if (!authenticationResolved) {
+			authenticationHeader = HTTPUtils.getAuthenticationHeader(request);
+			authenticationResolved = true;
+		}
+		return authenticationHeader;
+	}
+	
+	@Override
+	public String getAuthenticationScheme() {
+		if (scope != null) {
+			return getScoped().getAuthenticationScheme();
+		}
+		if (request.getContent() == null) {
+			return null;
+		}
+		Header header = MimeUtils.getHeader(ServerHeader.NAME_AUTHENTICATION_SCHEME, request.getContent().getHeaders());
+		return header == null ? null : header.getValue();
+	}
+	
+	@Override
+	public Principal getUserPrincipal() {
+		if (scope != null) {
+			return getScoped().getUserPrincipal();
+		}
+		AuthenticationHeader authenticationHeader = getAuthenticationHeader();
+		return authenticationHeader == null ? null : authenticationHeader.getToken();
+	}
+	
+	@Override
+	public boolean isSecure() {
+		if (scope != null) {
+			return getScoped().isSecure();
+		}
+		SecurityHeader securityHeader = HTTPUtils.getSecurityHeader(request);
+		return securityHeader != null && securityHeader.getSecurityContext() != null;
+	}
+	
+	@Override
+	public boolean isUserInRole(String role) {
+		if (scope != null) {
+			return getScoped().isUserInRole(role);
+		}
+		if (roleHandler == null) {
+			return false;
+		}
+		AuthenticationHeader authenticationHeader = getAuthenticationHeader();
+		if (authenticationHeader == null) {
+			return false;
+		}
+		synchronized(this) {
+			if (roles == null) {
+				roles = new HashMap<String, Boolean>();
+			}
+			Boolean inRole = roles.get(role);
+			if (inRole == null) {
+				inRole = roleHandler.hasRole(authenticationHeader.getToken(), role);
+				roles.put(role, inRole);
+			}
+			return inRole;
+		}
+	}
+}
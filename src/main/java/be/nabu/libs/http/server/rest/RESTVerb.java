@@ -0,0 +1,110 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.http.server.rest;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Locale;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.HEAD;
+import javax.ws.rs.OPTIONS;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+
+/**
+ * The supported http verbs, a set of verbs can be represented as a bitmask.
+ */
+public enum RESTVerb {
+	GET(GET.class),
+	POST(POST.class),
+	PUT(PUT.class),
+	DELETE(DELETE.class),
+	HEAD(HEAD.class),
+	OPTIONS(OPTIONS.class);
+	
+	private Class<? extends Annotation> annotation;
+	private int mask;
+	
+	private RESTVerb(Class<? extends Annotation> annotation) {
+		this.annotation = annotation;
+		this.mask = 1 << ordinal();
+	}
+
+	public Class<? extends Annotation> getAnnotation() {
+		return annotation;
+	}
+	
+	public int getMask() {
+		return mask;
+	}
+	
+	/**
+	 * Parses the method of a request, returns null if it is not supported
+	 */
+	public static RESTVerb parse(String method) {
+		// the method is case sensitive but this was historically matched case insensitively
+		switch(method.toUpperCase(Locale.ROOT)) {
+			case "GET": return GET;
+			case "POST": return POST;
+			case "PUT": return PUT;
+			case "DELETE": return DELETE;
+			case "HEAD": return HEAD;
+			case "OPTIONS": return OPTIONS;
+			default: return null;
+		}
+	}
+	
+	public static RESTVerb fromAnnotation(Class<? extends Annotation> annotation) {
+		for (RESTVerb verb : values()) {
+			if (verb.annotation.equals(annotation)) {
+				return verb;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * The bitmask of the verbs the method is annotated with
+	 */
+	public static int getMask(Method method) {
+		int mask = 0;
+		for (RESTVerb verb : values()) {
+			if (method.getAnnotation(verb.annotation) != null) {
+				mask |= verb.mask;
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * The value of an Allow header for the given verbs
+	 */
+	public static String toAllow(Collection<RESTVerb> verbs) {
+		StringBuilder builder = new StringBuilder();
+		for (RESTVerb verb : verbs) {
+			if (builder.length() > 0) {
+				builder.append(", ");
+			}
+			builder.append(verb.name());
+		}
+		return builder.toString();
+	}
+}
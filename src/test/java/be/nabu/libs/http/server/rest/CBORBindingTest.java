@@ -0,0 +1,109 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import be.nabu.libs.http.HTTPException;
+import junit.framework.TestCase;
+
+public class CBORBindingTest extends TestCase {
+	
+	private static final int ARRAY = 0x80, TEXT = 0x60;
+	
+	public void testWithinLimits() {
+		CBORBinding binding = new CBORBinding(null);
+		binding.setMaxSize(16);
+		// the limits apply per element
+		Iterator<Object> iterator = binding.newIterator(String.class, new ByteArrayInputStream(array(text(10), text(10), text(10))));
+		int count = 0;
+		while (iterator.hasNext()) {
+			assertEquals(10, ((String) iterator.next()).length());
+			count++;
+		}
+		assertEquals(3, count);
+	}
+	
+	public void testTruncated() {
+		// the text claims 10 bytes but only 3 arrive
+		byte [] document = Arrays.copyOf(array(text(10)), 5);
+		assertCode(400, new CBORBinding(null), document);
+	}
+	
+	public void testOversized() {
+		CBORBinding binding = new CBORBinding(null);
+		binding.setMaxSize(16);
+		assertCode(413, binding, array(text(32)));
+	}
+	
+	public void testOversizedLength() {
+		// a length of 2^63 - 1, it is rejected before anything is allocated or read
+		byte [] document = new byte[] { (byte) (ARRAY | 1), (byte) (TEXT | 27), 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+		assertCode(413, new CBORBinding(null), document);
+	}
+	
+	public void testTooDeep() {
+		CBORBinding binding = new CBORBinding(null);
+		binding.setMaxDepth(8);
+		// an array with a single element that is nested 20 levels deep
+		byte [] document = new byte[21];
+		Arrays.fill(document, (byte) (ARRAY | 1));
+		document[20] = (byte) ARRAY;
+		assertCode(400, binding, document);
+	}
+	
+	public void testNotAnArray() {
+		assertCode(400, new CBORBinding(null), text(3));
+	}
+	
+	private static void assertCode(int code, CBORBinding binding, byte [] document) {
+		Iterator<Object> iterator = binding.newIterator(String.class, new ByteArrayInputStream(document));
+		try {
+			while (iterator.hasNext()) {
+				iterator.next();
+			}
+			fail("Expected a " + code);
+		}
+		catch (HTTPException e) {
+			assertEquals(code, e.getCode());
+		}
+	}
+	
+	// a definite length array
+	private static byte [] array(byte[]...elements) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		output.write(ARRAY | elements.length);
+		for (byte [] element : elements) {
+			output.write(element, 0, element.length);
+		}
+		return output.toByteArray();
+	}
+	
+	// a text string of the given length (up to 255)
+	private static byte [] text(int length) {
+		byte [] text = new byte[length + 2];
+		text[0] = (byte) (TEXT | 24);
+		text[1] = (byte) length;
+		Arrays.fill(text, 2, text.length, (byte) 'x');
+		return text;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.http.HTTPException;
+import junit.framework.TestCase;
+
+public class RESTMultipartReaderTest extends TestCase {
+	
+	public void testReadAll() throws IOException {
+		RESTMultipartReader reader = new RESTMultipartReader(new ByteArrayInputStream(newContent(3, 10)), "boundary");
+		try {
+			Map<String, List<RESTFormPart>> parts = reader.readAll(1024, null, 10, 1000);
+			assertEquals(3, parts.size());
+			assertEquals("xxxxxxxxxx", parts.get("part0").get(0).getString());
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	public void testTooManyParts() throws IOException {
+		RESTMultipartReader reader = new RESTMultipartReader(new ByteArrayInputStream(newContent(10, 10)), "boundary");
+		try {
+			reader.readAll(1024, null, 5, 1000);
+			fail("Expected a 413");
+		}
+		catch (HTTPException e) {
+			assertEquals(413, e.getCode());
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	public void testTooMuchContent() throws IOException {
+		RESTMultipartReader reader = new RESTMultipartReader(new ByteArrayInputStream(newContent(10, 10)), "boundary");
+		try {
+			reader.readAll(1024, null, 100, 50);
+			fail("Expected a 413");
+		}
+		catch (HTTPException e) {
+			assertEquals(413, e.getCode());
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	public void testTooMuchContentOnDisk() throws IOException {
+		// parts above the threshold are written to disk, they count towards the limit as well
+		RESTMultipartReader reader = new RESTMultipartReader(new ByteArrayInputStream(newContent(1, 20000)), "boundary");
+		try {
+			reader.readAll(1024, null, 100, 10000);
+			fail("Expected a 413");
+		}
+		catch (HTTPException e) {
+			assertEquals(413, e.getCode());
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	public void testTemporaryFilesRemoved() throws IOException {
+		RESTMultipartReader reader = new RESTMultipartReader(new ByteArrayInputStream(newContent(1, 2048)), "boundary");
+		File file;
+		try {
+			file = reader.readAll(1024, null, 10, 10000).get("part0").get(0).getFile();
+			assertNotNull(file);
+			assertTrue(file.exists());
+		}
+		finally {
+			reader.close();
+		}
+		assertFalse(file.exists());
+	}
+	
+	private static byte [] newContent(int parts, int size) {
+		char [] content = new char[size];
+		Arrays.fill(content, 'x');
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < parts; i++) {
+			builder.append("--boundary\r\nContent-Disposition: form-data; name=\"part" + i + "\"\r\n\r\n").append(content).append("\r\n");
+		}
+		builder.append("--boundary--\r\n");
+		return builder.toString().getBytes();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.text.ParseException;
+
+import junit.framework.TestCase;
+
+public class RESTProjectionTest extends TestCase {
+	
+	public void testNested() throws ParseException {
+		RESTProjection projection = RESTProjection.parse("id, name(first,last), address/city");
+		assertTrue(projection.isSelected("id"));
+		assertFalse(projection.isSelected("other"));
+		assertNull(projection.get("id"));
+		assertTrue(projection.get("name").isSelected("first"));
+		assertFalse(projection.get("name").isSelected("middle"));
+		assertTrue(projection.get("address").isSelected("city"));
+	}
+	
+	public void testAll() throws ParseException {
+		assertTrue(RESTProjection.parse("*").isAll());
+		assertFalse(RESTProjection.parse("id").isAll());
+	}
+	
+	public void testUnbalancedOpen() {
+		assertInvalid("name(first");
+		assertInvalid("name(first(inner)");
+	}
+	
+	public void testUnbalancedClose() {
+		assertInvalid("name)");
+		assertInvalid("name(first))");
+	}
+	
+	public void testMissingName() {
+		assertInvalid("id,,name");
+		assertInvalid("(first)");
+		assertInvalid("id,");
+	}
+	
+	public void testWithinWildcard() {
+		assertInvalid("*(id)");
+	}
+	
+	private static void assertInvalid(String selector) {
+		try {
+			RESTProjection.parse(selector);
+			fail("Expected a parse exception for: " + selector);
+		}
+		catch (ParseException e) {
+			// expected
+		}
+	}
+}
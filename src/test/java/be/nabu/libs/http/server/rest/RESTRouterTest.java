@@ -0,0 +1,101 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.http.server.rest;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+
+import junit.framework.TestCase;
+
+public class RESTRouterTest extends TestCase {
+	
+	private RESTMethod get, post;
+	
+	@Override
+	protected void setUp() throws Exception {
+		get = new RESTMethod(null, Routes.class.getMethod("get"));
+		post = new RESTMethod(null, Routes.class.getMethod("post"));
+	}
+	
+	public void testLiteralBeforeParameter() {
+		RESTRouter router = new RESTRouter();
+		router.add(RESTVerb.GET, "/users/{id}", get);
+		router.add(RESTVerb.GET, "/users/me", post);
+		assertSame(post, router.route(RESTVerb.GET, "/users/me").getMethod());
+		RESTRouter.Match match = router.route(RESTVerb.GET, "/users/5");
+		assertSame(get, match.getMethod());
+		assertEquals(Arrays.asList("5"), Arrays.asList(match.getPathValues()));
+	}
+	
+	public void testMultipleParameters() {
+		RESTRouter router = new RESTRouter();
+		router.add(RESTVerb.GET, "/tenants/{tenant}/orders/{order}", get);
+		router.add(RESTVerb.GET, "/files/{name}.json", get);
+		assertEquals(Arrays.asList("a", "1"), Arrays.asList(router.route(RESTVerb.GET, "/tenants/a/orders/1").getPathValues()));
+		assertEquals(Arrays.asList("report"), Arrays.asList(router.route(RESTVerb.GET, "/files/report.json").getPathValues()));
+	}
+	
+	public void testCustomRegex() {
+		RESTRouter router = new RESTRouter();
+		router.add(RESTVerb.GET, "/codes/{id:[0-9]{3}}", get);
+		router.add(RESTVerb.GET, "/files/{path:.+}", get);
+		assertNotNull(router.route(RESTVerb.GET, "/codes/123"));
+		assertNull(router.route(RESTVerb.GET, "/codes/1234"));
+		// a custom regex can span segments
+		assertEquals(Arrays.asList("a/b/c"), Arrays.asList(router.route(RESTVerb.GET, "/files/a/b/c").getPathValues()));
+	}
+	
+	public void testNoMatch() {
+		RESTRouter router = new RESTRouter();
+		router.add(RESTVerb.GET, "/users/{id}", get);
+		assertNull(router.route(RESTVerb.GET, "/users/5/orders"));
+		assertNull(router.route(RESTVerb.GET, "/orders"));
+		assertNull(router.route(RESTVerb.POST, "/users/5"));
+	}
+	
+	public void testConflict() {
+		RESTRouter router = new RESTRouter();
+		assertNull(router.add(RESTVerb.GET, "/users/{id}", get));
+		// the same pattern with another parameter name is the same route
+		assertSame(get, router.add(RESTVerb.GET, "/users/{name}", post));
+		assertSame(get, router.route(RESTVerb.GET, "/users/5").getMethod());
+	}
+	
+	public void testAllowed() {
+		RESTRouter router = new RESTRouter();
+		router.add(RESTVerb.GET, "/users/{id}", get);
+		router.add(RESTVerb.POST, "/users/{id}", post);
+		assertEquals(EnumSet.of(RESTVerb.GET, RESTVerb.HEAD, RESTVerb.POST, RESTVerb.OPTIONS), router.getAllowed("/users/5"));
+		assertTrue(router.getAllowed("/orders").isEmpty());
+	}
+	
+	public static class Routes {
+		@GET
+		public void get() {
+			// routing only
+		}
+		@POST
+		public void post() {
+			// routing only
+		}
+	}
+}